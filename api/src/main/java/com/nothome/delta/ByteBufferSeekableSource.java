@@ -30,7 +30,8 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 
 /**
- * Wraps a byte buffer as a source
+ * Wraps a byte buffer as a source. Reads are bulk copies out of a single
+ * view of the buffer, so seeking and reading don't allocate.
  */
 public class ByteBufferSeekableSource implements SeekableSource {
 
@@ -52,27 +53,33 @@ public class ByteBufferSeekableSource implements SeekableSource {
             throw new NullPointerException("bb");
         this.bb = bb;
         bb.rewind();
-        try {
-            seek(0);
-        } catch (IOException e) {
-            throw new RuntimeException(e);
-        }
+        cur = bb.slice();
     }
 
     public void seek(long pos) throws IOException {
-        cur = bb.slice();
-        if (pos > cur.limit())
-            throw new IOException("pos " + pos + " cannot seek " + cur.limit());
+        if (pos > cur.capacity())
+            throw new IOException("pos " + pos + " cannot seek " + cur.capacity());
         cur.position((int) pos);
     }
 
+    /**
+     * Returns the length of the buffer.
+     */
+    public long length() {
+        return cur.capacity();
+    }
+
     public int read(ByteBuffer dest) throws IOException {
         if (!cur.hasRemaining())
             return -1;
-        int c = 0;
-        while (cur.hasRemaining() && dest.hasRemaining()) {
-            dest.put(cur.get());
-            c++;
+        int c = Math.min(cur.remaining(), dest.remaining());
+        if (c == cur.remaining()) {
+            dest.put(cur);
+        } else {
+            // Narrow the view to what fits in dest for the bulk transfer.
+            cur.limit(cur.position() + c);
+            dest.put(cur);
+            cur.limit(cur.capacity());
         }
         return c;
     }
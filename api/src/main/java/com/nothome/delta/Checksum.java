@@ -25,10 +25,9 @@
 
 package com.nothome.delta;
 
-import gnu.trove.map.hash.TLongIntHashMap;
-
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
  * Checksum computation class.
@@ -37,7 +36,13 @@ public class Checksum {
 
     static final boolean debug = false;
 
-    private TLongIntHashMap checksums = new TLongIntHashMap();
+    private ChecksumIndex checksums;
+
+    /**
+     * If chaining, the index of the previous block with the same checksum,
+     * for every block, or -1 at the end of the chain.
+     */
+    private int[] next;
 
     private static final char single_hash[] = {
         /* Random numbers generated using SLIB's pseudo-random number generator. */
@@ -75,11 +80,45 @@ public class Checksum {
             0x1672, 0xec28, 0x6acb, 0x86cc, 0x186e, 0x9414, 0xd674, 0xd1a5
     };
 
+    private static final long buzhash[] = new long[256];
+
+    static {
+        // Fixed seed, so the table is the same on every run. SplitMix64.
+        long seed = 0x5DEECE66DL;
+        for (int i = 0; i < buzhash.length; i++) {
+            long z = (seed += 0x9E3779B97F4A7C15L);
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            buzhash[i] = z ^ (z >>> 31);
+        }
+    }
+
     /**
      * Initialize checksums for source. The checksum for the <code>chunkSize</code> bytes at offset
      * <code>chunkSize</code> * i is inserted into a hash map.
      */
     public Checksum(SeekableSource source, int chunkSize) throws IOException {
+        this(source, chunkSize, false);
+    }
+
+    /**
+     * Initialize checksums for source. If <code>chained</code> is true then all blocks with the same checksum
+     * are kept, not only the last one, and can be walked using {@link #nextChecksumIndex(int)}.
+     */
+    public Checksum(SeekableSource source, int chunkSize, boolean chained) throws IOException {
+        this(source, chunkSize, chained, RollingHash.ADLER32);
+    }
+
+    /**
+     * Initialize checksums for source using the given rolling hash, which the
+     * target must then be hashed with as well.
+     */
+    public Checksum(SeekableSource source, int chunkSize, boolean chained, RollingHash hash) throws IOException {
+        long length = length(source);
+        int blocks = length < 0 ? -1 : (int) Math.min(length / chunkSize, 1 << 28);
+        checksums = blocks < 0 ? new ChecksumIndex() : new ChecksumIndex(blocks);
+        if (chained)
+            next = new int[blocks <= 0 ? 1024 : blocks];
         ByteBuffer bb = ByteBuffer.allocate(chunkSize * 2);
         int count = 0;
         while (true) {
@@ -88,13 +127,36 @@ public class Checksum {
             if (bb.remaining() < chunkSize)
                 break;
             while (bb.remaining() >= chunkSize) {
-                long queryChecksum = queryChecksum0(bb, chunkSize);
-                checksums.put(queryChecksum, count++);
+                long queryChecksum = hash == RollingHash.BUZHASH64 ?
+                        queryBuzhash0(bb, chunkSize) : queryChecksum0(bb, chunkSize);
+                int prev = checksums.put(queryChecksum, count);
+                if (chained) {
+                    if (count == next.length)
+                        next = Arrays.copyOf(next, count * 2);
+                    next[count] = prev;
+                }
+                count++;
             }
             bb.compact();
         }
     }
 
+    /**
+     * Returns the length of the source if it is known up front, so that the
+     * index can be sized once, or -1.
+     */
+    private static long length(SeekableSource source) throws IOException {
+        if (source instanceof ByteBufferSeekableSource)
+            return ((ByteBufferSeekableSource) source).length();
+        if (source instanceof MappedFileSeekableSource)
+            return ((MappedFileSeekableSource) source).length();
+        if (source instanceof ConcatSeekableSource)
+            return ((ConcatSeekableSource) source).length();
+        if (source instanceof RandomAccessFileSeekableSource)
+            return ((RandomAccessFileSeekableSource) source).length();
+        return -1;
+    }
+
     /**
      * Finds the checksum computed from the buffer.
      * Marks, gets, then resets the buffer.
@@ -133,6 +195,37 @@ public class Checksum {
         return (high << 16) | (low & 0xffff);
     }
 
+    /**
+     * Finds the {@link RollingHash#BUZHASH64} checksum computed from the buffer.
+     * Marks, gets, then resets the buffer.
+     */
+    public static long queryBuzhash(ByteBuffer bb, int len) {
+        bb.mark();
+        long sum = queryBuzhash0(bb, len);
+        bb.reset();
+        return sum;
+    }
+
+    private static long queryBuzhash0(ByteBuffer bb, int len) {
+        long h = 0;
+        for (int i = 0; i < len; i++)
+            h = Long.rotateLeft(h, 1) ^ buzhash[bb.get() + 128];
+        return h;
+    }
+
+    /**
+     * Increments a {@link RollingHash#BUZHASH64} checksum.
+     *
+     * @param checksum  initial checksum
+     * @param out       byte leaving view
+     * @param in        byte entering view
+     * @param chunkSize size of chunks
+     * @return new checksum
+     */
+    public static long incrementBuzhash(long checksum, byte out, byte in, int chunkSize) {
+        return Long.rotateLeft(checksum, 1) ^ Long.rotateLeft(buzhash[out + 128], chunkSize) ^ buzhash[in + 128];
+    }
+
     /**
      * 256 random hash values.
      */
@@ -144,11 +237,19 @@ public class Checksum {
      * Finds the index of a checksum.
      */
     public int findChecksumIndex(long hashf) {
-        if (!checksums.contains(hashf))
-            return -1;
         return checksums.get(hashf);
     }
 
+    /**
+     * Returns the index of the next (earlier) block with the same checksum as block <code>index</code>,
+     * or -1 if there are no more or this checksum was not built chained.
+     */
+    public int nextChecksumIndex(int index) {
+        if (next == null)
+            return -1;
+        return next[index];
+    }
+
     /**
      * Returns a debug <code>String</code>.
      */
@@ -0,0 +1,159 @@
+/*
+ * ChecksumIndex.java
+ *
+ * Copyright (c) 2015 Vinumeris GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ *
+ */
+
+package com.nothome.delta;
+
+import java.util.Arrays;
+
+/**
+ * Maps block checksums to block indexes. Open addressing with linear
+ * probing over a primitive array of keys and a parallel array of int
+ * values, so no entry is boxed and the values take half the room the keys
+ * do. Sized up front from the number of blocks when that is known,
+ * otherwise grown by doubling.
+ * <p>
+ * Indexes must not be negative: -1 marks an empty slot and is what
+ * {@link #get(long)} returns for a missing checksum.
+ */
+public class ChecksumIndex {
+
+    private static final int MIN_CAPACITY = 16;
+    private static final int MAX_CAPACITY = 1 << 30;
+
+    private long[] keys;
+    /**
+     * Value for the key at the same position, -1 where the slot is empty.
+     */
+    private int[] values;
+    private int mask;
+    private int shift;
+    private int size;
+
+    /**
+     * Constructs an index with room for <code>expected</code> entries
+     * before it has to grow.
+     */
+    public ChecksumIndex(int expected) {
+        if (expected < 0)
+            throw new IllegalArgumentException("Invalid expected size");
+        // Keep the load factor at or below one half.
+        int capacity = MIN_CAPACITY;
+        while (capacity < expected * 2L && capacity < MAX_CAPACITY)
+            capacity <<= 1;
+        allocate(capacity);
+    }
+
+    /**
+     * Constructs an index that starts small and grows as needed.
+     */
+    public ChecksumIndex() {
+        this(0);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(values, -1);
+        mask = capacity - 1;
+        shift = 64 - Integer.numberOfTrailingZeros(capacity);
+        size = 0;
+    }
+
+    private int slot(long key) {
+        // Fibonacci hashing spreads the Adler-style checksums, whose low
+        // bits are poorly mixed, over the table.
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+    }
+
+    /**
+     * Returns the index stored for <code>key</code>, or -1 if there is none.
+     */
+    public int get(long key) {
+        long[] k = keys;
+        int[] v = values;
+        int i = slot(key);
+        while (true) {
+            int value = v[i];
+            if (value == -1 || k[i] == key)
+                return value;
+            i = (i + 1) & mask;
+        }
+    }
+
+    /**
+     * Stores <code>value</code> for <code>key</code>, returning the index
+     * it replaces, or -1 if there was none.
+     */
+    public int put(long key, int value) {
+        if (value < 0)
+            throw new IllegalArgumentException("Invalid index " + value);
+        if ((size + 1) * 2L > mask + 1)
+            grow();
+        long[] k = keys;
+        int[] v = values;
+        int i = slot(key);
+        while (true) {
+            int prev = v[i];
+            if (prev == -1) {
+                k[i] = key;
+                v[i] = value;
+                size++;
+                return -1;
+            }
+            if (k[i] == key) {
+                v[i] = value;
+                return prev;
+            }
+            i = (i + 1) & mask;
+        }
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        if (oldKeys.length >= MAX_CAPACITY)
+            throw new IllegalStateException("Too many checksums");
+        allocate(oldKeys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++)
+            if (oldValues[i] != -1)
+                put(oldKeys[i], oldValues[i]);
+    }
+
+    /**
+     * Returns the number of checksums stored.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns a debug <code>String</code>.
+     */
+    @Override
+    public String toString() {
+        return "ChecksumIndex size=" + size + " capacity=" + (mask + 1);
+    }
+
+}
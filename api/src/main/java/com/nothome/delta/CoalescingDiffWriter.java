@@ -0,0 +1,147 @@
+/*
+ * CoalescingDiffWriter.java
+ *
+ * Copyright (c) 2015 Vinumeris GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ *
+ */
+
+package com.nothome.delta;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Sits in front of another {@link DiffWriter} and tidies up the instructions passed to it. Copies of neighbouring
+ * ranges of the source are joined into one, and if the source is given, a copy that is between runs of data and
+ * shorter than its own encoding is sent as data instead. Either way the patch comes out smaller and the patcher
+ * seeks less often, while applying to exactly the same result.<p>
+ *
+ * The source is read when a copy is turned into data, so it must not be one that something else is in the middle
+ * of reading.
+ */
+public class CoalescingDiffWriter implements DiffWriter {
+    private final DiffWriter output;
+    private final SeekableSource source;
+
+    private long copyOffset;
+    private int copyLength;
+    private boolean afterData;
+    private ByteBuffer buf;
+
+    /**
+     * Joins neighbouring copies only.
+     */
+    public CoalescingDiffWriter(DiffWriter output) {
+        this(output, null);
+    }
+
+    /**
+     * @param source the source the patch will be applied to, used to turn short copies into data. May be null.
+     */
+    public CoalescingDiffWriter(DiffWriter output, SeekableSource source) {
+        if (output == null)
+            throw new NullPointerException("output");
+        this.output = output;
+        this.source = source;
+    }
+
+    public void addCopy(long offset, int length) throws IOException {
+        if (length == 0)
+            return;
+        if (copyLength > 0 && copyOffset + copyLength == offset && (long) copyLength + length <= Integer.MAX_VALUE) {
+            copyLength += length;
+            return;
+        }
+        flushCopy();
+        copyOffset = offset;
+        copyLength = length;
+    }
+
+    public void addData(byte b) throws IOException {
+        copyToData();
+        output.addData(b);
+        afterData = true;
+    }
+
+    public void addData(byte[] b, int off, int len) throws IOException {
+        if (len == 0)
+            return;
+        copyToData();
+        output.addData(b, off, len);
+        afterData = true;
+    }
+
+    /**
+     * Data follows the pending copy. If the data before it would join up with this too, the header that saves
+     * counts in favour of sending the copy as data.
+     */
+    private void copyToData() throws IOException {
+        if (copyLength == 0)
+            return;
+        if (source == null || copyLength >= copySize(copyOffset, copyLength) + (afterData ? 1 : 0)) {
+            flushCopy();
+            return;
+        }
+        if (buf == null)
+            buf = ByteBuffer.allocate(32);
+        buf.clear();
+        buf.limit(copyLength);
+        source.seek(copyOffset);
+        while (buf.hasRemaining() && source.read(buf) != -1) {
+        }
+        if (buf.hasRemaining()) {
+            // Runs off the end of the source. Leave it for the patcher to complain about.
+            flushCopy();
+            return;
+        }
+        output.addData(buf.array(), 0, copyLength);
+        copyLength = 0;
+    }
+
+    private void flushCopy() throws IOException {
+        if (copyLength > 0) {
+            output.addCopy(copyOffset, copyLength);
+            afterData = false;
+        }
+        copyLength = 0;
+    }
+
+    /**
+     * Returns how many bytes {@link GDiffWriter} takes to write the copy.
+     */
+    static int copySize(long offset, int length) {
+        if (offset > Integer.MAX_VALUE)
+            return 1 + 8 + 4;
+        int offsetSize = offset < 65536 ? 2 : 4;
+        int lengthSize = length < 256 ? 1 : length > 65535 ? 4 : 2;
+        return 1 + offsetSize + lengthSize;
+    }
+
+    public void flush() throws IOException {
+        flushCopy();
+        output.flush();
+    }
+
+    public void close() throws IOException {
+        flushCopy();
+        output.close();
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * ConcatSeekableSource.java
+ *
+ * Copyright (c) 2015 Vinumeris GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ *
+ */
+
+package com.nothome.delta;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Joins several sources end to end into one. A patch computed against the
+ * joined source can copy from any of them, with offsets into the whole.
+ */
+public class ConcatSeekableSource implements SeekableSource {
+
+    private SeekableSource[] sources;
+    /**
+     * Offset of the start of each source, followed by the total length.
+     */
+    private long[] starts;
+    private int cur;
+    private long pos;
+
+    /**
+     * Constructs a new ConcatSeekableSource of sources with the given lengths.
+     */
+    public ConcatSeekableSource(SeekableSource[] sources, long[] lengths) throws IOException {
+        if (sources.length != lengths.length)
+            throw new IllegalArgumentException("Need a length for every source");
+        this.sources = sources.clone();
+        starts = new long[sources.length + 1];
+        for (int i = 0; i < sources.length; i++)
+            starts[i + 1] = starts[i] + lengths[i];
+        seek(0);
+    }
+
+    /**
+     * Constructs a new ConcatSeekableSource by mapping each of the files with
+     * {@link MappedFileSeekableSource}.
+     */
+    public ConcatSeekableSource(File... files) throws IOException {
+        this(map(files), lengths(files));
+    }
+
+    private static SeekableSource[] map(File[] files) throws IOException {
+        SeekableSource[] sources = new SeekableSource[files.length];
+        for (int i = 0; i < files.length; i++)
+            sources[i] = new MappedFileSeekableSource(files[i]);
+        return sources;
+    }
+
+    private static long[] lengths(File[] files) {
+        long[] lengths = new long[files.length];
+        for (int i = 0; i < files.length; i++)
+            lengths[i] = files[i].length();
+        return lengths;
+    }
+
+    public void seek(long pos) throws IOException {
+        if (pos > length())
+            throw new IOException("pos " + pos + " cannot seek " + length());
+        cur = 0;
+        while (cur < sources.length && starts[cur + 1] <= pos)
+            cur++;
+        if (cur < sources.length)
+            sources[cur].seek(pos - starts[cur]);
+        this.pos = pos;
+    }
+
+    public int read(ByteBuffer bb) throws IOException {
+        if (pos >= length())
+            return -1;
+        int total = 0;
+        while (bb.hasRemaining() && cur < sources.length) {
+            int c = sources[cur].read(bb);
+            if (c == -1) {
+                if (++cur < sources.length)
+                    sources[cur].seek(0);
+                continue;
+            }
+            total += c;
+            pos += c;
+        }
+        return total;
+    }
+
+    /**
+     * Returns the combined length of the sources.
+     */
+    public long length() {
+        return starts[starts.length - 1];
+    }
+
+    public void close() throws IOException {
+        for (SeekableSource source : sources)
+            source.close();
+    }
+
+    /**
+     * Returns a debug <code>String</code>.
+     */
+    @Override
+    public String toString() {
+        return "ConcatSeekable" +
+                " sources=" + sources.length +
+                " length=" + length() +
+                " pos=" + pos;
+    }
+
+}
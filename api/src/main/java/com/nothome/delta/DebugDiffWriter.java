@@ -52,6 +52,11 @@ public class DebugDiffWriter implements DiffWriter {
         writeBuf();
     }
 
+    public void addData(byte[] b, int off, int len) throws IOException {
+        os.write(b, off, len);
+        writeBuf();
+    }
+
     private void writeBuf() {
         System.err.print("DATA: ");
         byte[] ba = os.toByteArray();
@@ -45,10 +45,20 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.channels.ReadableByteChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Class for computing deltas against a source.
@@ -77,11 +87,34 @@ public class Delta {
      */
     public static final int DEFAULT_CHUNK_SIZE = 1 << 4;
 
+    /**
+     * Default number of candidate blocks tried by {@link MatchStrategy#LONGEST}.
+     */
+    public static final int DEFAULT_MAX_CANDIDATES = 64;
+
+    /**
+     * Size of the ranges the target is cut into when scanned by several
+     * threads. Fixed, so the patch doesn't depend on the number of threads.
+     */
+    static final int RANGE_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * Most bytes looked at either side of where two ranges meet when
+     * joining a match that was cut in two.
+     */
+    private static final int STITCH_MAX = 64 * 1024;
+
     /**
      * Chunk Size.
      */
     private int S;
 
+    private MatchStrategy matchStrategy = MatchStrategy.FIRST;
+    private int maxCandidates = DEFAULT_MAX_CANDIDATES;
+    private RollingHash rollingHash = RollingHash.ADLER32;
+    private int threads = 1;
+    private int rangeSize = RANGE_SIZE;
+
     private SourceState source;
     private TargetState target;
     private DiffWriter output;
@@ -107,6 +140,61 @@ public class Delta {
         S = size;
     }
 
+    /**
+     * Sets how a source block is chosen when several have the same checksum.
+     * The default is {@link MatchStrategy#FIRST}.
+     */
+    public void setMatchStrategy(MatchStrategy matchStrategy) {
+        if (matchStrategy == null)
+            throw new NullPointerException("matchStrategy");
+        this.matchStrategy = matchStrategy;
+    }
+
+    /**
+     * Sets how many blocks with the same checksum {@link MatchStrategy#LONGEST}
+     * tries before settling for the best so far. Bounds the time spent on
+     * highly repetitive sources.
+     */
+    public void setMaxCandidates(int maxCandidates) {
+        if (maxCandidates <= 0)
+            throw new IllegalArgumentException("Invalid maxCandidates");
+        this.maxCandidates = maxCandidates;
+    }
+
+    /**
+     * Sets the rolling hash used to find candidate blocks, which mostly
+     * affects how much time is spent on false matches. The default is
+     * {@link RollingHash#ADLER32}.
+     */
+    public void setRollingHash(RollingHash rollingHash) {
+        if (rollingHash == null)
+            throw new NullPointerException("rollingHash");
+        this.rollingHash = rollingHash;
+    }
+
+    /**
+     * Sets how many threads {@link #compute(File, File, DiffWriter)} scans
+     * the target with. With more than one, the target is cut into ranges of
+     * a fixed size which are scanned at once against a single index of the
+     * source, and joined back up in order. The patch is the same however
+     * many threads there are and however they are scheduled, but may differ
+     * slightly from the one a single thread finds, as a match is cut where
+     * two ranges meet and only joined up again as far as the bytes either
+     * side allow. The default is 1.
+     */
+    public void setThreads(int threads) {
+        if (threads <= 0)
+            throw new IllegalArgumentException("Invalid threads");
+        this.threads = threads;
+    }
+
+    /**
+     * For tests, so that small targets are cut into several ranges.
+     */
+    void setRangeSize(int rangeSize) {
+        this.rangeSize = rangeSize;
+    }
+
     /**
      * Compares the source bytes with target bytes, writing to output.
      */
@@ -143,7 +231,11 @@ public class Delta {
      */
     public void compute(File sourceFile, File targetFile, DiffWriter output)
             throws IOException {
-        RandomAccessFileSeekableSource source = new RandomAccessFileSeekableSource(new RandomAccessFile(sourceFile, "r"));
+        if (threads > 1) {
+            computeParallel(sourceFile, targetFile, output);
+            return;
+        }
+        MappedFileSeekableSource source = new MappedFileSeekableSource(sourceFile);
         InputStream is = new BufferedInputStream(new FileInputStream(targetFile));
         try {
             compute(source, is, output);
@@ -160,12 +252,26 @@ public class Delta {
      */
     public void compute(SeekableSource seekSource, InputStream targetIS, DiffWriter output)
             throws IOException {
+        compute(seekSource, newChecksum(seekSource), targetIS, output);
+    }
+
+    private Checksum newChecksum(SeekableSource source) throws IOException {
+        return new Checksum(source, S, matchStrategy == MatchStrategy.LONGEST, rollingHash);
+    }
+
+    /**
+     * Compares the source with a target, using an index of the source
+     * that was built already. The index is only read, so several threads
+     * can share one.
+     */
+    private void compute(SeekableSource seekSource, Checksum checksum, InputStream targetIS, DiffWriter output)
+            throws IOException {
 
         if (debug) {
             debug("using match length S = " + S);
         }
 
-        source = new SourceState(seekSource);
+        source = new SourceState(seekSource, checksum);
         target = new TargetState(targetIS);
         this.output = output;
         if (debug)
@@ -175,34 +281,301 @@ public class Delta {
             debug("!target.eof()");
             int index = target.find(source);
             if (index != -1) {
+                if (matchStrategy == MatchStrategy.LONGEST)
+                    index = target.bestCandidate(source, index);
                 if (debug)
                     debug("found hash " + index);
                 long offset = (long) index * S;
+                // Literals just before the block may match the source too.
+                int back = target.matchBack(source, offset);
+                target.retractLiterals(back);
                 source.seek(offset);
                 int match = target.longestMatch(source);
                 if (match >= S) {
                     if (debug)
-                        debug("output.addCopy(" + offset + "," + match + ")");
-                    output.addCopy(offset, match);
+                        debug("output.addCopy(" + (offset - back) + "," + (match + back) + ")");
+                    target.flushLiterals();
+                    output.addCopy(offset - back, match + back);
                 } else {
                     // move the position back according to how much we can't copy
                     target.tbuf.position(target.tbuf.position() - match);
+                    target.retractLiterals(-back);
                     addData();
                 }
-            } else {
-                addData();
             }
         }
+        target.flushLiterals();
         output.close();
     }
 
+    /**
+     * Scans ranges of the target on a pool of threads, and joins up what
+     * they find in order as each one finishes. Only a few ranges ahead of
+     * the one being joined are scanned at once, which bounds the memory
+     * held.
+     */
+    private void computeParallel(File sourceFile, File targetFile, DiffWriter output) throws IOException {
+        try (MappedFileSeekableSource source = new MappedFileSeekableSource(sourceFile);
+             FileChannel target = FileChannel.open(targetFile.toPath(), StandardOpenOption.READ)) {
+            Checksum checksum = newChecksum(source);
+            long length = target.size();
+            long ranges = (length + rangeSize - 1) / rangeSize;
+            Stitcher stitcher = new Stitcher(source, new CoalescingDiffWriter(output));
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                ArrayDeque<Future<Commands>> pending = new ArrayDeque<>();
+                long next = 0;
+                while (next < ranges || !pending.isEmpty()) {
+                    while (next < ranges && pending.size() < threads * 2) {
+                        long start = next++ * rangeSize;
+                        int len = (int) Math.min(rangeSize, length - start);
+                        // Each range reads the one mapping of the source through a view of its own.
+                        MappedFileSeekableSource view = source.view();
+                        pending.add(executor.submit(() -> scan(view, checksum, target, start, len)));
+                    }
+                    stitcher.add(await(pending.removeFirst()));
+                }
+            } finally {
+                executor.shutdownNow();
+                // The source is unmapped when it's closed, so no scan may still be reading it by then.
+                awaitTermination(executor);
+            }
+            stitcher.close();
+        }
+    }
+
+    /**
+     * Compares one range of the target with the whole source, with a Delta
+     * of its own that has the same settings as this one.
+     */
+    private Commands scan(SeekableSource source, Checksum checksum, FileChannel target, long start, int length)
+            throws IOException {
+        ByteBuffer range = ByteBuffer.allocate(length);
+        while (range.hasRemaining()) {
+            if (target.read(range, start + range.position()) == -1)
+                throw new IOException("target shrank while being read");
+        }
+        Delta delta = new Delta();
+        delta.S = S;
+        delta.matchStrategy = matchStrategy;
+        delta.maxCandidates = maxCandidates;
+        delta.rollingHash = rollingHash;
+        Commands commands = new Commands();
+        delta.compute(source, checksum, new ByteArrayInputStream(range.array()), commands);
+        return commands;
+    }
+
+    private static void awaitTermination(ExecutorService executor) throws IOException {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (executor.awaitTermination(1, TimeUnit.MINUTES))
+                    break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    private static <T> T await(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * A COPY, or DATA if <code>data</code> is set.
+     */
+    private static class Command {
+        long offset;
+        int length;
+        byte[] data;
+        int dataStart;
+    }
+
+    /**
+     * Keeps the commands found for one range until it is its turn to be
+     * written out. The data of all of them is staged in one buffer that
+     * grows as needed, and neighbouring DATA commands are joined.
+     */
+    private static class Commands implements DiffWriter {
+        final List<Command> list = new ArrayList<>();
+        private byte[] data = new byte[1024];
+        private int size;
+        private Command lastData;
+
+        public void addCopy(long offset, int length) {
+            Command command = new Command();
+            command.offset = offset;
+            command.length = length;
+            list.add(command);
+            lastData = null;
+        }
+
+        public void addData(byte b) {
+            reserve(1);
+            data[size++] = b;
+            extendData(1);
+        }
+
+        public void addData(byte[] b, int off, int len) {
+            reserve(len);
+            System.arraycopy(b, off, data, size, len);
+            size += len;
+            extendData(len);
+        }
+
+        private void reserve(int len) {
+            if (size + len > data.length)
+                data = Arrays.copyOf(data, Math.max(data.length * 2, size + len));
+        }
+
+        private void extendData(int len) {
+            if (lastData == null) {
+                lastData = new Command();
+                lastData.data = data;
+                lastData.dataStart = size - len;
+                list.add(lastData);
+            }
+            lastData.length += len;
+        }
+
+        public void flush() {
+        }
+
+        /**
+         * Points the DATA commands at the buffer as it ended up, now it
+         * won't grow again.
+         */
+        public void close() {
+            for (Command command : list) {
+                if (command.data != null)
+                    command.data = data;
+            }
+        }
+    }
+
+    /**
+     * Writes out the commands of each range in turn. A match that ran over
+     * the end of a range comes out as a COPY up to the end, then DATA for
+     * the bytes the next range had to scan past before finding a block
+     * again. The COPY is extended over as much of that DATA as matches, and
+     * the same the other way round for a match that started just before a
+     * range. After that the two copies are next to each other in the source,
+     * and the output joins them into one.
+     */
+    private static class Stitcher {
+        private final SeekableSource source;
+        private final DiffWriter output;
+        private final ByteBuffer buf = ByteBuffer.allocate(STITCH_MAX);
+        /**
+         * The last command so far, held back until the next range is seen.
+         */
+        private Command last;
+
+        Stitcher(SeekableSource source, DiffWriter output) {
+            this.source = source;
+            this.output = output;
+        }
+
+        void add(Commands commands) throws IOException {
+            if (commands.list.isEmpty())
+                return;
+            // Within a range the matches are as long as they go already.
+            Command first = commands.list.get(0);
+            if (last != null && last.data == null && first.data != null)
+                extendForward(last, first);
+            else if (last != null && last.data != null && first.data == null)
+                extendBack(last, first);
+            for (Command command : commands.list) {
+                if (last != null)
+                    write(last);
+                last = command;
+            }
+        }
+
+        /**
+         * Moves the bytes at the start of data that follow on from copy in
+         * the source into copy.
+         */
+        private void extendForward(Command copy, Command data) throws IOException {
+            int max = Math.min(Math.min(data.length, STITCH_MAX), Integer.MAX_VALUE - copy.length);
+            if (max == 0 || read(copy.offset + copy.length, max) < max)
+                return;
+            int n = 0;
+            while (n < max && buf.get(n) == data.data[data.dataStart + n])
+                n++;
+            copy.length += n;
+            data.dataStart += n;
+            data.length -= n;
+        }
+
+        /**
+         * Moves the bytes at the end of data that come just before copy in
+         * the source into copy.
+         */
+        private void extendBack(Command data, Command copy) throws IOException {
+            int max = (int) Math.min(Math.min(Math.min(data.length, STITCH_MAX), copy.offset), Integer.MAX_VALUE - copy.length);
+            if (max == 0 || read(copy.offset - max, max) < max)
+                return;
+            int n = 0;
+            while (n < max && buf.get(max - 1 - n) == data.data[data.dataStart + data.length - 1 - n])
+                n++;
+            data.length -= n;
+            copy.offset -= n;
+            copy.length += n;
+        }
+
+        /**
+         * Reads up to length bytes of the source into the buffer, returning
+         * how many there were.
+         */
+        private int read(long offset, int length) throws IOException {
+            buf.clear();
+            buf.limit(length);
+            source.seek(offset);
+            while (buf.hasRemaining() && source.read(buf) != -1) {
+            }
+            return buf.position();
+        }
+
+        private void write(Command command) throws IOException {
+            if (command.length == 0)
+                return;
+            if (command.data == null)
+                output.addCopy(command.offset, command.length);
+            else
+                output.addData(command.data, command.dataStart, command.length);
+        }
+
+        void close() throws IOException {
+            if (last != null)
+                write(last);
+            output.close();
+        }
+    }
+
     private void addData() throws IOException {
         int i = target.read();
         if (debug)
             debug("addData " + Integer.toHexString(i));
         if (i == -1)
             return;
-        output.addData((byte) i);
+        target.addLiterals(1);
     }
 
     class SourceState {
@@ -210,8 +583,8 @@ public class Delta {
         private Checksum checksum;
         private SeekableSource source;
 
-        public SourceState(SeekableSource source) throws IOException {
-            checksum = new Checksum(source, S);
+        public SourceState(SeekableSource source, Checksum checksum) throws IOException {
+            this.checksum = checksum;
             this.source = source;
             source.seek(0);
         }
@@ -238,9 +611,21 @@ public class Delta {
         private ReadableByteChannel c;
         private ByteBuffer tbuf = ByteBuffer.allocate(blocksize());
         private ByteBuffer sbuf = ByteBuffer.allocate(blocksize());
+        private ByteBuffer cbuf;
+        private ByteBuffer bbuf;
         private long hash;
         private boolean hashReset = true;
         private boolean eof;
+        /**
+         * Literal bytes not yet passed to the output; they end just before
+         * index <code>literalEnd</code> of <code>tbuf</code>.
+         */
+        private int literals;
+        private int literalEnd;
+        /**
+         * How many literals the last compaction kept at the front of the buffer.
+         */
+        private int kept;
 
         TargetState(InputStream targetIS) throws IOException {
             c = Channels.newChannel(targetIS);
@@ -248,11 +633,17 @@ public class Delta {
         }
 
         private int blocksize() {
+            // When choosing between candidates, the buffer is also how far ahead they are compared.
+            if (matchStrategy == MatchStrategy.LONGEST)
+                return Math.max(1024 * 16, S * 4);
             return Math.min(1024 * 16, S * 4);
         }
 
         /**
-         * Returns the index of the next N bytes of the stream.
+         * Scans forward to the next N bytes of the stream that have a
+         * checksum in the source, and returns the index of that block.
+         * Bytes passed over are added as literals. Returns -1, having
+         * consumed the rest of the stream, if there is no such block.
          */
         public int find(SourceState source) throws IOException {
             if (eof)
@@ -262,20 +653,129 @@ public class Delta {
             if (hashReset) {
                 debug("hashReset");
                 while (tbuf.remaining() < S) {
-                    tbuf.compact();
+                    compact();
                     int read = c.read(tbuf);
-                    tbuf.flip();
+                    flip();
                     if (read == -1) {
                         debug("target ending");
-                        return -1;
+                        return end();
                     }
                 }
-                hash = Checksum.queryChecksum(tbuf, S);
+                hash();
                 hashReset = false;
             }
             if (debug)
                 debug("hash " + hash + " " + dump());
-            return source.checksum.findChecksumIndex(hash);
+            // The rolling hash and position are kept in locals and only
+            // written back when leaving the loop or refilling the buffer.
+            Checksum checksum = source.checksum;
+            boolean buzhash = rollingHash == RollingHash.BUZHASH64;
+            byte[] a = tbuf.array();
+            int base = tbuf.arrayOffset();
+            int start = tbuf.position();
+            int pos = start;
+            int last = tbuf.limit() - S;
+            long h = hash;
+            while (true) {
+                int index = checksum.findChecksumIndex(h);
+                if (index != -1) {
+                    tbuf.position(pos);
+                    addLiterals(pos - start);
+                    hash = h;
+                    return index;
+                }
+                if (pos == last) {
+                    tbuf.position(pos);
+                    addLiterals(pos - start);
+                    hash = h;
+                    readMore();
+                    if (tbuf.remaining() == S)
+                        return end();
+                    start = pos = tbuf.position();
+                    last = tbuf.limit() - S;
+                }
+                if (buzhash)
+                    h = Checksum.incrementBuzhash(h, a[base + pos], a[base + pos + S], S);
+                else
+                    h = Checksum.incrementChecksum(h, a[base + pos], a[base + pos + S], S);
+                pos++;
+            }
+        }
+
+        /**
+         * Adds the rest of the buffer, too short to match, as literals.
+         */
+        private int end() throws IOException {
+            int n = tbuf.remaining();
+            tbuf.position(tbuf.limit());
+            addLiterals(n);
+            eof = true;
+            return -1;
+        }
+
+        /**
+         * Returns the index of the block, out of <code>index</code> and the
+         * others with the same checksum, that matches the most of the
+         * buffered target bytes. Earlier candidates win ties.
+         */
+        public int bestCandidate(SourceState source, int index) throws IOException {
+            if (source.checksum.nextChecksumIndex(index) == -1)
+                return index;
+            fillLookahead();
+            if (cbuf == null)
+                cbuf = ByteBuffer.allocate(Math.min(S * 4, 1024));
+            int best = index;
+            int bestMatch = -1;
+            int tries = 0;
+            for (int i = index; i != -1 && tries < maxCandidates; i = source.checksum.nextChecksumIndex(i), tries++) {
+                int match = matchLength(source, (long) i * S);
+                if (match > bestMatch) {
+                    best = i;
+                    bestMatch = match;
+                    if (match == tbuf.remaining())
+                        break;
+                }
+            }
+            if (debug)
+                debug("bestCandidate " + best + " of " + tries + " matching " + bestMatch);
+            return best;
+        }
+
+        /**
+         * Returns how many of the buffered target bytes match the source at
+         * <code>offset</code>, reading the source a small piece at a time so
+         * that poor candidates are rejected cheaply.
+         */
+        private int matchLength(SourceState source, long offset) throws IOException {
+            source.seek(offset);
+            int match = 0;
+            int base = tbuf.position();
+            while (match < tbuf.remaining()) {
+                cbuf.clear();
+                cbuf.limit(Math.min(cbuf.capacity(), tbuf.remaining() - match));
+                if (source.source.read(cbuf) == -1)
+                    return match;
+                cbuf.flip();
+                while (cbuf.hasRemaining()) {
+                    if (cbuf.get() != tbuf.get(base + match))
+                        return match;
+                    match++;
+                }
+            }
+            return match;
+        }
+
+        /**
+         * Reads as much of the target as fits into the buffer, without
+         * consuming anything.
+         */
+        private void fillLookahead() throws IOException {
+            if (eof || tbuf.limit() == tbuf.capacity() && tbuf.position() == kept)
+                return;
+            compact();
+            while (tbuf.hasRemaining() && c.read(tbuf) != -1) {
+            }
+            flip();
         }
 
         public boolean eof() {
@@ -298,13 +798,41 @@ public class Delta {
             byte b = tbuf.get();
             if (tbuf.remaining() >= S) {
                 byte nchar = tbuf.get(tbuf.position() + S - 1);
-                hash = Checksum.incrementChecksum(hash, b, nchar, S);
+                if (rollingHash == RollingHash.BUZHASH64)
+                    hash = Checksum.incrementBuzhash(hash, b, nchar, S);
+                else
+                    hash = Checksum.incrementChecksum(hash, b, nchar, S);
             } else {
                 debug("out of char");
             }
             return b & 0xFF;
         }
 
+        /**
+         * Marks the <code>count</code> bytes before the buffer position as
+         * literal data. Consecutive literals are handed to the output as
+         * one run.
+         */
+        public void addLiterals(int count) throws IOException {
+            if (count == 0)
+                return;
+            if (literals > 0 && literalEnd != tbuf.position() - count)
+                flushLiterals();
+            literals += count;
+            literalEnd = tbuf.position();
+        }
+
+        /**
+         * Writes out pending literal bytes. Must be called before the
+         * buffer is compacted and before a copy is output.
+         */
+        public void flushLiterals() throws IOException {
+            if (literals == 0)
+                return;
+            output.addData(tbuf.array(), tbuf.arrayOffset() + literalEnd - literals, literals);
+            literals = 0;
+        }
+
         /**
          * Returns the longest match length at the source location.
          */
@@ -339,13 +867,82 @@ public class Delta {
         private void readMore() throws IOException {
             if (debug)
                 debug("readMore " + tbuf);
-            tbuf.compact();
+            compact();
             c.read(tbuf);
+            flip();
+        }
+
+        /**
+         * Compacts the buffer, ready for reading more into it. Pending
+         * literals are written out, except for up to a block's worth that
+         * end at the position, which stay at the front of the buffer so that
+         * a following match can be extended back over them.
+         */
+        private void compact() throws IOException {
+            int keep = 0;
+            if (literalEnd == tbuf.position())
+                keep = Math.max(0, Math.min(literals, Math.min(S - 1, tbuf.capacity() - 3 * S)));
+            if (literals > keep)
+                output.addData(tbuf.array(), tbuf.arrayOffset() + literalEnd - literals, literals - keep);
+            literals = keep;
+            literalEnd = keep;
+            kept = keep;
+            tbuf.position(tbuf.position() - keep);
+            tbuf.compact();
+        }
+
+        /**
+         * Flips the buffer after {@link #compact()}, leaving the position
+         * after the kept literals.
+         */
+        private void flip() {
             tbuf.flip();
+            tbuf.position(kept);
+        }
+
+        /**
+         * Returns how many of the pending literals that end at the buffer
+         * position are equal to the source bytes before <code>offset</code>.
+         * Looks back less than a block: any further and the block before
+         * would usually have matched already.
+         */
+        public int matchBack(SourceState source, long offset) throws IOException {
+            if (literals == 0 || literalEnd != tbuf.position())
+                return 0;
+            int max = (int) Math.min(Math.min(literals, S - 1), offset);
+            if (max == 0)
+                return 0;
+            if (bbuf == null)
+                bbuf = ByteBuffer.allocate(S);
+            bbuf.clear();
+            bbuf.limit(max);
+            source.seek(offset - max);
+            while (bbuf.hasRemaining() && source.source.read(bbuf) != -1) {
+            }
+            if (bbuf.hasRemaining())
+                return 0;
+            int back = 0;
+            while (back < max && bbuf.get(max - 1 - back) == tbuf.get(literalEnd - 1 - back))
+                back++;
+            if (debug)
+                debug("matchBack " + back);
+            return back;
+        }
+
+        /**
+         * Takes the last <code>count</code> pending literals back, as they
+         * are to be copied instead. A negative count puts them back again.
+         */
+        public void retractLiterals(int count) {
+            literals -= count;
+            literalEnd -= count;
         }
 
         void hash() {
-            hash = Checksum.queryChecksum(tbuf, S);
+            if (rollingHash == RollingHash.BUZHASH64)
+                hash = Checksum.queryBuzhash(tbuf, S);
+            else
+                hash = Checksum.queryChecksum(tbuf, S);
         }
 
         /**
@@ -43,6 +43,17 @@ public interface DiffWriter extends Closeable {
      */
     public void addData(byte b) throws IOException;
 
+    /**
+     * Add <code>len</code> bytes of a GDIFF data instruction, starting at
+     * <code>off</code>. Equivalent to calling {@link #addData(byte)} for
+     * each byte, which is what it does unless overridden, but lets
+     * implementors copy the run in one go.
+     */
+    public default void addData(byte[] b, int off, int len) throws IOException {
+        for (int i = off; i < off + len; i++)
+            addData(b[i]);
+    }
+
     /**
      * Flushes to output, e.g. any data added.
      */
@@ -0,0 +1,266 @@
+/*
+ * GDiffComposer.java
+ *
+ * Copyright (c) 2015 Vinumeris GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ *
+ */
+
+package com.nothome.delta;
+
+import static com.nothome.delta.GDiffWriter.COPY_INT_INT;
+import static com.nothome.delta.GDiffWriter.COPY_INT_UBYTE;
+import static com.nothome.delta.GDiffWriter.COPY_INT_USHORT;
+import static com.nothome.delta.GDiffWriter.COPY_LONG_INT;
+import static com.nothome.delta.GDiffWriter.COPY_USHORT_INT;
+import static com.nothome.delta.GDiffWriter.COPY_USHORT_UBYTE;
+import static com.nothome.delta.GDiffWriter.COPY_USHORT_USHORT;
+import static com.nothome.delta.GDiffWriter.DATA_INT;
+import static com.nothome.delta.GDiffWriter.DATA_MAX;
+import static com.nothome.delta.GDiffWriter.DATA_USHORT;
+import static com.nothome.delta.GDiffWriter.EOF;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Merges a chain of GDIFF patches, each one made against the output of the
+ * one before, into a single patch against the source of the first. Applying
+ * the result writes only the final file, instead of every version in
+ * between.
+ * <p>
+ * The merged patch is held in memory as a list of ranges of the final file,
+ * each one either copied from the source or literal data. A COPY in a later
+ * patch is resolved against those ranges, so its size depends on the number
+ * of commands and the amount of literal data, not on the size of the files.
+ */
+public class GDiffComposer {
+
+    private Segments segments;
+
+    /**
+     * Adds the next patch in the chain. The first one added is made against
+     * the source, each later one against the output of those before it.
+     */
+    public void add(InputStream patch) throws IOException {
+        DataInputStream patchIS = new DataInputStream(patch);
+        if (patchIS.readUnsignedByte() != 0xd1 ||
+                patchIS.readUnsignedByte() != 0xff ||
+                patchIS.readUnsignedByte() != 0xd1 ||
+                patchIS.readUnsignedByte() != 0xff ||
+                patchIS.readUnsignedByte() != 0x04) {
+            throw new PatchException("magic string not found, aborting!");
+        }
+        Segments prev = segments;
+        Segments next = new Segments();
+        while (true) {
+            int command = patchIS.readUnsignedByte();
+            if (command == EOF)
+                break;
+            if (command <= DATA_MAX) {
+                next.addData(patchIS, command);
+                continue;
+            }
+            long offset;
+            int length;
+            switch (command) {
+                case DATA_USHORT:
+                    next.addData(patchIS, patchIS.readUnsignedShort());
+                    continue;
+                case DATA_INT:
+                    next.addData(patchIS, patchIS.readInt());
+                    continue;
+                case COPY_USHORT_UBYTE:
+                    offset = patchIS.readUnsignedShort();
+                    length = patchIS.readUnsignedByte();
+                    break;
+                case COPY_USHORT_USHORT:
+                    offset = patchIS.readUnsignedShort();
+                    length = patchIS.readUnsignedShort();
+                    break;
+                case COPY_USHORT_INT:
+                    offset = patchIS.readUnsignedShort();
+                    length = patchIS.readInt();
+                    break;
+                case COPY_INT_UBYTE:
+                    offset = patchIS.readInt();
+                    length = patchIS.readUnsignedByte();
+                    break;
+                case COPY_INT_USHORT:
+                    offset = patchIS.readInt();
+                    length = patchIS.readUnsignedShort();
+                    break;
+                case COPY_INT_INT:
+                    offset = patchIS.readInt();
+                    length = patchIS.readInt();
+                    break;
+                case COPY_LONG_INT:
+                    offset = patchIS.readLong();
+                    length = patchIS.readInt();
+                    break;
+                default:
+                    throw new PatchException("command " + command);
+            }
+            if (prev == null)
+                next.addCopy(offset, length);
+            else
+                prev.copyTo(next, offset, length);
+        }
+        segments = next;
+    }
+
+    /**
+     * Applies the merged patch to the source of the first patch added.
+     */
+    public void patch(SeekableSource source, OutputStream out) throws IOException {
+        if (segments == null)
+            throw new IllegalStateException("No patches added");
+        ByteBuffer buf = ByteBuffer.allocate(1024 * 64);
+        for (int i = 0; i < segments.count; i++) {
+            int length = segments.lengths[i];
+            if (segments.literal[i]) {
+                out.write(segments.data, (int) segments.offsets[i], length);
+                continue;
+            }
+            source.seek(segments.offsets[i]);
+            while (length > 0) {
+                buf.clear().limit(Math.min(buf.capacity(), length));
+                int res = source.read(buf);
+                if (res == -1)
+                    throw new EOFException("in copy " + segments.offsets[i] + " " + segments.lengths[i]);
+                out.write(buf.array(), 0, res);
+                length -= res;
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * The output of a patch as consecutive ranges. A range is either copied
+     * from the source, with offsets[i] being where, or literal, with
+     * offsets[i] being where in data it is.
+     */
+    private static class Segments {
+        long[] starts = new long[16];
+        long[] offsets = new long[16];
+        int[] lengths = new int[16];
+        boolean[] literal = new boolean[16];
+        int count;
+        long size;
+
+        byte[] data = new byte[1024];
+        int dataSize;
+
+        void addCopy(long offset, int length) {
+            if (length <= 0)
+                return;
+            int last = count - 1;
+            // Pieces of neighbouring ranges often join back up.
+            if (last >= 0 && !literal[last] && offsets[last] + lengths[last] == offset &&
+                    (long) lengths[last] + length <= Integer.MAX_VALUE) {
+                lengths[last] += length;
+                size += length;
+                return;
+            }
+            add(offset, length, false);
+        }
+
+        void addData(DataInputStream in, int length) throws IOException {
+            if (length < 0)
+                throw new PatchException("length " + length);
+            int pos = reserveData(length);
+            in.readFully(data, pos, length);
+            appendData(pos, length);
+        }
+
+        void addData(byte[] b, int off, int length) throws IOException {
+            int pos = reserveData(length);
+            System.arraycopy(b, off, data, pos, length);
+            appendData(pos, length);
+        }
+
+        private int reserveData(int length) throws IOException {
+            if ((long) dataSize + length > Integer.MAX_VALUE - 8)
+                throw new PatchException("too much data to merge");
+            if (dataSize + length > data.length)
+                data = Arrays.copyOf(data, (int) Math.min(Integer.MAX_VALUE - 8, Math.max((long) data.length * 2, dataSize + length)));
+            int pos = dataSize;
+            dataSize += length;
+            return pos;
+        }
+
+        private void appendData(int pos, int length) {
+            if (length == 0)
+                return;
+            int last = count - 1;
+            if (last >= 0 && literal[last] && offsets[last] + lengths[last] == pos &&
+                    (long) lengths[last] + length <= Integer.MAX_VALUE) {
+                lengths[last] += length;
+                size += length;
+                return;
+            }
+            add(pos, length, true);
+        }
+
+        private void add(long offset, int length, boolean isLiteral) {
+            if (count == starts.length) {
+                int capacity = count * 2;
+                starts = Arrays.copyOf(starts, capacity);
+                offsets = Arrays.copyOf(offsets, capacity);
+                lengths = Arrays.copyOf(lengths, capacity);
+                literal = Arrays.copyOf(literal, capacity);
+            }
+            starts[count] = size;
+            offsets[count] = offset;
+            lengths[count] = length;
+            literal[count] = isLiteral;
+            count++;
+            size += length;
+        }
+
+        /**
+         * Appends to next whatever this output has from offset to
+         * offset + length, in terms of the original source.
+         */
+        void copyTo(Segments next, long offset, int length) throws IOException {
+            if (offset < 0 || length < 0 || offset + length > size)
+                throw new PatchException("copy " + offset + " " + length + " past end " + size);
+            int i = Arrays.binarySearch(starts, 0, count, offset);
+            if (i < 0)
+                i = -i - 2;
+            while (length > 0) {
+                long skip = offset - starts[i];
+                int piece = (int) Math.min(length, lengths[i] - skip);
+                if (literal[i])
+                    next.addData(data, (int) (offsets[i] + skip), piece);
+                else
+                    next.addCopy(offsets[i] + skip, piece);
+                offset += piece;
+                length -= piece;
+                i++;
+            }
+        }
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * GDiffIndex.java
+ *
+ * Copyright (c) 2015 Vinumeris GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ *
+ */
+
+package com.nothome.delta;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A list of points in a GDIFF patch where a command starts, with how much
+ * output the commands before it produce. Each stretch between two points
+ * can be applied on its own, so a patch that has one can be applied by
+ * several threads at once, see {@link ParallelGDiffPatcher}.
+ * <p>
+ * {@link GDiffWriter} writes the index after the EOF command, where
+ * patchers that don't know about it never look. It is laid out as the
+ * pairs of output offset and patch offset, then the length of the output,
+ * the number of pairs and a magic number, all big endian, so it can be found
+ * from the end of the file.
+ */
+public class GDiffIndex {
+
+    static final int MAGIC = 0xd1ff1d58;
+
+    /**
+     * Length of the output length, count and magic at the very end.
+     */
+    private static final int FOOTER_SIZE = 8 + 4 + 4;
+
+    private long[] outputOffsets = new long[16];
+    private long[] patchOffsets = new long[16];
+    private int count;
+    private long outputLength;
+
+    GDiffIndex() {
+    }
+
+    /**
+     * Records that the command at patchOffset starts at outputOffset in
+     * the output.
+     */
+    void add(long outputOffset, long patchOffset) {
+        if (count == outputOffsets.length) {
+            outputOffsets = Arrays.copyOf(outputOffsets, count * 2);
+            patchOffsets = Arrays.copyOf(patchOffsets, count * 2);
+        }
+        outputOffsets[count] = outputOffset;
+        patchOffsets[count] = patchOffset;
+        count++;
+    }
+
+    /**
+     * Writes the index, which must come straight after the EOF command.
+     */
+    void write(DataOutputStream output, long outputLength) throws IOException {
+        for (int i = 0; i < count; i++) {
+            output.writeLong(outputOffsets[i]);
+            output.writeLong(patchOffsets[i]);
+        }
+        output.writeLong(outputLength);
+        output.writeInt(count);
+        output.writeInt(MAGIC);
+    }
+
+    /**
+     * Reads the index from the end of the patch file, or returns null if it
+     * doesn't have one. Only works on uncompressed patches.
+     *
+     * @throws PatchException if there is an index but it doesn't make sense
+     */
+    public static GDiffIndex read(File patchFile) throws IOException {
+        try (FileChannel patch = FileChannel.open(patchFile.toPath(), StandardOpenOption.READ)) {
+            long size = patch.size();
+            if (size < FOOTER_SIZE)
+                return null;
+            ByteBuffer footer = readFully(patch, size - FOOTER_SIZE, FOOTER_SIZE);
+            long outputLength = footer.getLong();
+            int count = footer.getInt();
+            if (footer.getInt() != MAGIC)
+                return null;
+            if (count <= 0 || outputLength < 0 || (long) count * 16 + FOOTER_SIZE >= size)
+                throw new PatchException("bad index");
+            ByteBuffer entries = readFully(patch, size - FOOTER_SIZE - count * 16L, count * 16);
+            GDiffIndex index = new GDiffIndex();
+            index.outputLength = outputLength;
+            long lastOutput = -1, lastPatch = -1;
+            for (int i = 0; i < count; i++) {
+                long outputOffset = entries.getLong();
+                long patchOffset = entries.getLong();
+                // In order, inside the output and before the index itself.
+                if (outputOffset <= lastOutput || outputOffset > outputLength ||
+                        patchOffset <= lastPatch || patchOffset >= size - FOOTER_SIZE - count * 16L)
+                    throw new PatchException("bad index entry " + i);
+                index.add(outputOffset, patchOffset);
+                lastOutput = outputOffset;
+                lastPatch = patchOffset;
+            }
+            if (index.outputOffsets[0] != 0)
+                throw new PatchException("index does not start at the beginning");
+            return index;
+        }
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position()) == -1)
+                throw new PatchException("index truncated");
+        }
+        buf.flip();
+        return buf;
+    }
+
+    /**
+     * Returns how many independent parts the patch is split into.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Returns where part i of the patch writes to in the output.
+     */
+    public long outputOffset(int i) {
+        return outputOffsets[i];
+    }
+
+    /**
+     * Returns where the first command of part i is in the patch file.
+     */
+    public long patchOffset(int i) {
+        return patchOffsets[i];
+    }
+
+    /**
+     * Returns how much output part i produces.
+     */
+    public long outputLength(int i) {
+        return (i + 1 < count ? outputOffsets[i + 1] : outputLength) - outputOffsets[i];
+    }
+
+    /**
+     * Returns the length of the whole output.
+     */
+    public long outputLength() {
+        return outputLength;
+    }
+}
@@ -39,17 +39,17 @@ import static com.nothome.delta.GDiffWriter.EOF;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
+import java.io.BufferedOutputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 
 /**
  * This class patches an input file with a GDIFF patch fil�e.
@@ -59,8 +59,40 @@ import java.nio.ByteBuffer;
  */
 public class GDiffPatcher {
 
-    private ByteBuffer buf = ByteBuffer.allocate(1024);
-    private byte buf2[] = buf.array();
+    /**
+     * Size of the buffers the patch is read through and copies are made with.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private ByteBuffer buf = ByteBuffer.allocate(BUFFER_SIZE);
+
+    /**
+     * The patch, read ahead in bulk. Commands are decoded straight out of
+     * this, from pos up to limit.
+     */
+    private byte[] in = new byte[BUFFER_SIZE];
+    private ByteBuffer inBuf = ByteBuffer.wrap(in);
+    private int pos, limit;
+    private InputStream patchIS;
+
+    /**
+     * How much output the commands so far have produced.
+     */
+    private long written;
+
+    /**
+     * COPY commands at least this long are done with
+     * {@link FileChannel#transferTo} when patching file to file. Shorter
+     * ones are cheaper to copy through the buffer than to hand to the
+     * kernel a call at a time.
+     */
+    static final int TRANSFER_MIN = 1024 * 1024;
+
+    /**
+     * Set while patching file to file: out writes to outputChannel.
+     */
+    private FileChannel sourceChannel;
+    private FileChannel outputChannel;
 
     /**
      * Constructs a new GDiffPatcher.
@@ -73,17 +105,33 @@ public class GDiffPatcher {
      */
     public void patch(File sourceFile, File patchFile, File outputFile)
             throws IOException {
-        RandomAccessFileSeekableSource source = new RandomAccessFileSeekableSource(new RandomAccessFile(sourceFile, "r"));
         InputStream patch = new FileInputStream(patchFile);
-        OutputStream output = new FileOutputStream(outputFile);
         try {
-            patch(source, patch, output);
-        } catch (IOException e) {
-            throw e;
+            patch(sourceFile, patch, outputFile);
         } finally {
-            source.close();
             patch.close();
-            output.close();
+        }
+    }
+
+    /**
+     * Patches a file to an output file. Long COPY commands are done with
+     * {@link FileChannel#transferTo}, so the kernel can copy the bytes
+     * between the files without them passing through the JVM.
+     */
+    public void patch(File sourceFile, InputStream patch, File outputFile)
+            throws IOException {
+        MappedFileSeekableSource source = new MappedFileSeekableSource(sourceFile);
+        try (FileChannel in = FileChannel.open(sourceFile.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(outputFile.toPath(), StandardOpenOption.WRITE,
+                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            sourceChannel = in;
+            outputChannel = out;
+            // Small DATA commands would otherwise be a write call each.
+            patch(source, patch, new BufferedOutputStream(Channels.newOutputStream(out), BUFFER_SIZE));
+        } finally {
+            sourceChannel = null;
+            outputChannel = null;
+            source.close();
         }
     }
 
@@ -104,88 +152,165 @@ public class GDiffPatcher {
     }
 
     /**
-     * Patches to an output stream.
+     * Patches to an output stream. The patch is read ahead in large blocks,
+     * so it need not be buffered, and may be read past the end of the
+     * GDIFF data.
      */
     public void patch(SeekableSource source, InputStream patch, OutputStream out) throws IOException {
-
-        DataOutputStream outOS = new DataOutputStream(out);
-        DataInputStream patchIS = new DataInputStream(patch);
+        patchIS = patch;
+        pos = limit = 0;
 
         // the magic string is 'd1 ff d1 ff' + the version number
-        if (patchIS.readUnsignedByte() != 0xd1 ||
-                patchIS.readUnsignedByte() != 0xff ||
-                patchIS.readUnsignedByte() != 0xd1 ||
-                patchIS.readUnsignedByte() != 0xff ||
-                patchIS.readUnsignedByte() != 0x04) {
+        if (readUnsignedByte() != 0xd1 ||
+                readUnsignedByte() != 0xff ||
+                readUnsignedByte() != 0xd1 ||
+                readUnsignedByte() != 0xff ||
+                readUnsignedByte() != 0x04) {
 
             throw new PatchException("magic string not found, aborting!");
         }
 
-        while (true) {
-            int command = patchIS.readUnsignedByte();
+        commands(source, out, -1);
+        out.flush();
+        patchIS = null;
+    }
+
+    /**
+     * Applies part of a patch, as listed in its {@link GDiffIndex}. The
+     * patch must be positioned at the command the part starts with, and
+     * exactly length bytes are written, as if from where that part goes in
+     * the output.
+     */
+    void patchPart(SeekableSource source, InputStream patch, OutputStream out, long length) throws IOException {
+        patchIS = patch;
+        pos = limit = 0;
+        commands(source, out, length);
+        if (written != length)
+            throw new PatchException("part of patch ends inside a command");
+        out.flush();
+        patchIS = null;
+    }
+
+    /**
+     * Runs commands until the EOF command, or until at least end bytes
+     * have been written if end isn't negative.
+     */
+    private void commands(SeekableSource source, OutputStream out, long end) throws IOException {
+        written = 0;
+        while (end < 0 || written < end) {
+            int command = readUnsignedByte();
             if (command == EOF)
                 break;
             int length;
             int offset;
 
             if (command <= DATA_MAX) {
-                append(command, patchIS, outOS);
+                append(command, out);
                 continue;
             }
 
             switch (command) {
                 case DATA_USHORT: // ushort, n bytes following; append
-                    length = patchIS.readUnsignedShort();
-                    append(length, patchIS, outOS);
+                    length = readUnsignedShort();
+                    append(length, out);
                     break;
                 case DATA_INT: // int, n bytes following; append
-                    length = patchIS.readInt();
-                    append(length, patchIS, outOS);
+                    length = readInt();
+                    append(length, out);
                     break;
                 case COPY_USHORT_UBYTE:
-                    offset = patchIS.readUnsignedShort();
-                    length = patchIS.readUnsignedByte();
-                    copy(offset, length, source, outOS);
+                    offset = readUnsignedShort();
+                    length = readUnsignedByte();
+                    copy(offset, length, source, out);
                     break;
                 case COPY_USHORT_USHORT:
-                    offset = patchIS.readUnsignedShort();
-                    length = patchIS.readUnsignedShort();
-                    copy(offset, length, source, outOS);
+                    offset = readUnsignedShort();
+                    length = readUnsignedShort();
+                    copy(offset, length, source, out);
                     break;
                 case COPY_USHORT_INT:
-                    offset = patchIS.readUnsignedShort();
-                    length = patchIS.readInt();
-                    copy(offset, length, source, outOS);
+                    offset = readUnsignedShort();
+                    length = readInt();
+                    copy(offset, length, source, out);
                     break;
                 case COPY_INT_UBYTE:
-                    offset = patchIS.readInt();
-                    length = patchIS.readUnsignedByte();
-                    copy(offset, length, source, outOS);
+                    offset = readInt();
+                    length = readUnsignedByte();
+                    copy(offset, length, source, out);
                     break;
                 case COPY_INT_USHORT:
-                    offset = patchIS.readInt();
-                    length = patchIS.readUnsignedShort();
-                    copy(offset, length, source, outOS);
+                    offset = readInt();
+                    length = readUnsignedShort();
+                    copy(offset, length, source, out);
                     break;
                 case COPY_INT_INT:
-                    offset = patchIS.readInt();
-                    length = patchIS.readInt();
-                    copy(offset, length, source, outOS);
+                    offset = readInt();
+                    length = readInt();
+                    copy(offset, length, source, out);
                     break;
                 case COPY_LONG_INT:
-                    long loffset = patchIS.readLong();
-                    length = patchIS.readInt();
-                    copy(loffset, length, source, outOS);
+                    long loffset = readLong();
+                    length = readInt();
+                    copy(loffset, length, source, out);
                     break;
                 default:
                     throw new IllegalStateException("command " + command);
             }
         }
-        outOS.flush();
+    }
+
+    /**
+     * Makes sure at least n bytes of the patch are buffered.
+     */
+    private void require(int n) throws IOException {
+        if (limit - pos >= n)
+            return;
+        System.arraycopy(in, pos, in, 0, limit - pos);
+        limit -= pos;
+        pos = 0;
+        while (limit < n) {
+            int res = patchIS.read(in, limit, in.length - limit);
+            if (res == -1)
+                throw new EOFException();
+            limit += res;
+        }
+    }
+
+    private int readUnsignedByte() throws IOException {
+        require(1);
+        return in[pos++] & 0xFF;
+    }
+
+    private int readUnsignedShort() throws IOException {
+        require(2);
+        int v = inBuf.getShort(pos) & 0xFFFF;
+        pos += 2;
+        return v;
+    }
+
+    private int readInt() throws IOException {
+        require(4);
+        int v = inBuf.getInt(pos);
+        pos += 4;
+        return v;
+    }
+
+    private long readLong() throws IOException {
+        require(8);
+        long v = inBuf.getLong(pos);
+        pos += 8;
+        return v;
     }
 
     private void copy(long offset, int length, SeekableSource source, OutputStream output)
             throws IOException {
+        written += length;
+        if (outputChannel != null && length >= TRANSFER_MIN) {
+            // Whatever is buffered has to land before the copied bytes.
+            output.flush();
+            transfer(offset, length);
+            return;
+        }
         source.seek(offset);
         while (length > 0) {
             int len = Math.min(buf.capacity(), length);
@@ -198,17 +323,40 @@ public class GDiffPatcher {
         }
     }
 
-    private void append(int length, InputStream patch, OutputStream output) throws IOException {
+    private void transfer(long offset, int length) throws IOException {
+        if (offset < 0 || offset + length > sourceChannel.size())
+            throw new EOFException("in copy " + offset + " " + length);
         while (length > 0) {
-            int len = Math.min(buf2.length, length);
-            int res = patch.read(buf2, 0, len);
-            if (res == -1)
-                throw new EOFException("cannot read " + length);
-            output.write(buf2, 0, res);
+            long res = sourceChannel.transferTo(offset, length, outputChannel);
+            if (res <= 0)
+                throw new EOFException("in copy " + offset + " " + length);
+            offset += res;
             length -= res;
         }
     }
 
+    /**
+     * Writes length bytes of data from the patch, straight out of the
+     * read ahead buffer.
+     */
+    private void append(int length, OutputStream output) throws IOException {
+        written += length;
+        while (length > 0) {
+            if (pos == limit) {
+                pos = 0;
+                limit = patchIS.read(in, 0, in.length);
+                if (limit == -1) {
+                    limit = 0;
+                    throw new EOFException("cannot read " + length);
+                }
+            }
+            int len = Math.min(limit - pos, length);
+            output.write(in, pos, len);
+            pos += len;
+            length -= len;
+        }
+    }
+
     /**
      * Simple command line tool to patch a file.
      */
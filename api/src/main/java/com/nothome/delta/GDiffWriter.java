@@ -24,7 +24,6 @@
 
 package com.nothome.delta;
 
-import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -57,17 +56,33 @@ public class GDiffWriter implements DiffWriter {
     public static final int COPY_INT_INT = 254;
     public static final int COPY_LONG_INT = 255;
 
-    private ByteArrayOutputStream buf = new ByteArrayOutputStream();
+    private final byte[] buf = new byte[CHUNK_SIZE];
+    private int bufLen;
 
     private boolean debug = false;
 
     private DataOutputStream output = null;
 
+    /**
+     * Where the patch starts in output, as counted by it.
+     */
+    private int start;
+
+    private GDiffIndex index;
+    private long indexInterval;
+    private long nextIndex;
+
+    /**
+     * How much output the patch produces so far.
+     */
+    private long written;
+
     /**
      * Constructs a new GDiffWriter.
      */
     public GDiffWriter(DataOutputStream os) throws IOException {
         this.output = os;
+        start = os.size();
         // write magic string "d1 ff d1 ff 04"
         output.writeByte(0xd1);
         output.writeByte(0xff);
@@ -83,12 +98,41 @@ public class GDiffWriter implements DiffWriter {
         this(new DataOutputStream(output));
     }
 
+    /**
+     * Records where a command starts about every interval bytes of output,
+     * and writes the list after the end of the patch as a
+     * {@link GDiffIndex}. Must be called before anything is added. The
+     * positions are of the stream given to the constructor, so they are only
+     * of use if that is written to the file as is, not compressed. Patches
+     * over 2GB are only indexed up to there.
+     */
+    public void setIndexInterval(long interval) {
+        if (interval <= 0)
+            throw new IllegalArgumentException("interval " + interval);
+        index = new GDiffIndex();
+        indexInterval = interval;
+        nextIndex = 0;
+    }
+
+    /**
+     * Called before each command is written, with how much output it adds.
+     */
+    private void command(long length) {
+        // DataOutputStream.size() stops counting at Integer.MAX_VALUE.
+        if (index != null && written >= nextIndex && output.size() < Integer.MAX_VALUE) {
+            index.add(written, output.size() - start);
+            nextIndex = written + indexInterval;
+        }
+        written += length;
+    }
+
     public void addCopy(long offset, int length) throws IOException {
         writeBuf();
 
         //output debug data        
         if (debug)
             System.err.println("COPY off: " + offset + ", len: " + length);
+        command(length);
 
         // output real data
         if (offset > Integer.MAX_VALUE) {
@@ -131,24 +175,40 @@ public class GDiffWriter implements DiffWriter {
      * Adds a data byte.
      */
     public void addData(byte b) throws IOException {
-        buf.write(b);
-        if (buf.size() >= CHUNK_SIZE)
+        buf[bufLen++] = b;
+        if (bufLen >= CHUNK_SIZE)
             writeBuf();
     }
 
+    /**
+     * Adds a run of data bytes.
+     */
+    public void addData(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = Math.min(len, CHUNK_SIZE - bufLen);
+            System.arraycopy(b, off, buf, bufLen, n);
+            bufLen += n;
+            off += n;
+            len -= n;
+            if (bufLen >= CHUNK_SIZE)
+                writeBuf();
+        }
+    }
+
     private void writeBuf() throws IOException {
-        if (buf.size() > 0) {
-            if (buf.size() <= DATA_MAX) {
-                output.writeByte(buf.size());
-            } else if (buf.size() <= 65535) {
+        if (bufLen > 0) {
+            command(bufLen);
+            if (bufLen <= DATA_MAX) {
+                output.writeByte(bufLen);
+            } else if (bufLen <= 65535) {
                 output.writeByte(DATA_USHORT);
-                output.writeShort(buf.size());
+                output.writeShort(bufLen);
             } else {
                 output.writeByte(DATA_INT);
-                output.writeInt(buf.size());
+                output.writeInt(bufLen);
             }
-            buf.writeTo(output);
-            buf.reset();
+            output.write(buf, 0, bufLen);
+            bufLen = 0;
         }
     }
 
@@ -161,11 +221,14 @@ public class GDiffWriter implements DiffWriter {
     }
 
     /**
-     * Writes the final EOF byte, closes the underlying stream.
+     * Writes the final EOF byte and the index if there is one, closes the
+     * underlying stream.
      */
     public void close() throws IOException {
         this.flush();
         output.write((byte) EOF);
+        if (index != null && index.size() > 0)
+            index.write(output, written);
         output.close();
     }
 
@@ -0,0 +1,201 @@
+/*
+ * MappedFileSeekableSource.java
+ *
+ * Copyright (c) 2015 Vinumeris GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ *
+ */
+
+package com.nothome.delta;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Maps a file into memory as a source. A read is then a copy out of the page
+ * cache instead of a seek and a read system call, which is a big win for the
+ * many small random reads done when patching or indexing a large file.
+ * <p>
+ * Files over 2GB are mapped in several chunks, as a single
+ * {@link MappedByteBuffer} cannot be larger than that.
+ * <p>
+ * Java has no public way to unmap a file, so {@link #close()} unmaps it
+ * through the JDK internals where it can, so that on Windows the file can be
+ * moved or deleted straight away. Where it can't, the mapping only goes
+ * away when the buffers are collected and the file stays locked until then.
+ * Nothing may read from the source once it is closed.
+ */
+public class MappedFileSeekableSource implements SeekableSource {
+
+    /**
+     * Size of each mapped region.
+     */
+    static final int DEFAULT_MAP_SIZE = 1 << 30;
+
+    private static final Unmapper UNMAPPER = unmapper();
+
+    private MappedByteBuffer[] maps;
+    private int mapSize;
+    private long length;
+    private long pos;
+    /**
+     * False for a view, which doesn't own the mapping.
+     */
+    private final boolean owner;
+
+    /**
+     * Constructs a new MappedFileSeekableSource.
+     */
+    public MappedFileSeekableSource(File file) throws IOException {
+        this(file, DEFAULT_MAP_SIZE);
+    }
+
+    MappedFileSeekableSource(File file, int mapSize) throws IOException {
+        if (file == null)
+            throw new NullPointerException("file");
+        this.mapSize = mapSize;
+        this.owner = true;
+        // The mappings stay valid after the channel is closed.
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            length = channel.size();
+            maps = new MappedByteBuffer[(int) ((length + mapSize - 1) / mapSize)];
+            for (int i = 0; i < maps.length; i++) {
+                long start = (long) i * mapSize;
+                maps[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(mapSize, length - start));
+            }
+        }
+    }
+
+    private MappedFileSeekableSource(MappedFileSeekableSource mapping) {
+        maps = new MappedByteBuffer[mapping.maps.length];
+        for (int i = 0; i < maps.length; i++)
+            maps[i] = (MappedByteBuffer) mapping.maps[i].duplicate();
+        mapSize = mapping.mapSize;
+        length = mapping.length;
+        owner = false;
+    }
+
+    /**
+     * Returns a source that reads the same mapping with a position of its
+     * own, so each thread can read the file without mapping it again.
+     * Closing the view does nothing, and it must not be read from after this
+     * source is closed.
+     */
+    MappedFileSeekableSource view() {
+        return new MappedFileSeekableSource(this);
+    }
+
+    public void seek(long pos) throws IOException {
+        if (pos > length)
+            throw new IOException("pos " + pos + " cannot seek " + length);
+        this.pos = pos;
+    }
+
+    public int read(ByteBuffer dest) throws IOException {
+        // After an unmap, reading the old buffers would crash the JVM.
+        if (maps == null)
+            throw new IOException("closed");
+        if (pos >= length)
+            return -1;
+        int c = 0;
+        while (dest.hasRemaining() && pos < length) {
+            ByteBuffer map = maps[(int) (pos / mapSize)];
+            int offset = (int) (pos % mapSize);
+            int len = Math.min(dest.remaining(), map.capacity() - offset);
+            map.limit(offset + len);
+            map.position(offset);
+            dest.put(map);
+            pos += len;
+            c += len;
+        }
+        return c;
+    }
+
+    /**
+     * Returns the length of the file.
+     */
+    public long length() {
+        return length;
+    }
+
+    public void close() throws IOException {
+        MappedByteBuffer[] maps = this.maps;
+        this.maps = null;
+        if (maps == null || !owner || UNMAPPER == null)
+            return;
+        for (MappedByteBuffer map : maps) {
+            try {
+                UNMAPPER.unmap(map);
+            } catch (Exception e) {
+                // Left to the garbage collector.
+            }
+        }
+    }
+
+    private interface Unmapper {
+        void unmap(ByteBuffer buffer) throws Exception;
+    }
+
+    /**
+     * Finds how to unmap a buffer on this JVM, or returns null if it can't.
+     */
+    private static Unmapper unmapper() {
+        try {
+            // Java 9 and up.
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            Object unsafe = theUnsafe.get(null);
+            return buffer -> invokeCleaner.invoke(unsafe, buffer);
+        } catch (Exception | LinkageError e) {
+            // Fall through to the Java 8 way.
+        }
+        try {
+            Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+            Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+            return buffer -> {
+                Object c = cleaner.invoke(buffer);
+                if (c != null)
+                    clean.invoke(c);
+            };
+        } catch (Exception | LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns a debug <code>String</code>.
+     */
+    @Override
+    public String toString() {
+        return "MappedSeekable" +
+                " length=" + length +
+                " maps=" + (maps == null ? 0 : maps.length) +
+                " pos=" + pos;
+    }
+
+}
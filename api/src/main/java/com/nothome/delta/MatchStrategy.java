@@ -0,0 +1,48 @@
+/*
+ * MatchStrategy.java
+ *
+ * Copyright (c) 2015 Vinumeris GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ *
+ */
+
+package com.nothome.delta;
+
+/**
+ * How {@link Delta} chooses a source block when the rolling hash at the
+ * current target position matches one or more blocks of the source.
+ */
+public enum MatchStrategy {
+
+    /**
+     * Only try the last source block indexed with the hash. This is the
+     * fastest and the only thing older versions did, but when blocks collide
+     * the better match is often never seen.
+     */
+    FIRST,
+
+    /**
+     * Try every source block indexed with the hash, up to
+     * {@link Delta#setMaxCandidates(int)} of them, and copy from whichever
+     * matches the most upcoming target bytes. Slower, but produces smaller
+     * patches, especially with larger chunk sizes.
+     */
+    LONGEST
+}
@@ -0,0 +1,143 @@
+/*
+ * ParallelGDiffPatcher.java
+ *
+ * Copyright (c) 2015 Vinumeris GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ *
+ */
+
+package com.nothome.delta;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Applies a patch that has a {@link GDiffIndex} on several threads at once.
+ * Each part of the patch writes to its own range of the output file, which
+ * is made full size up front, so the parts can be applied in any order.
+ * Each thread has its own view of the source files and its own handles on
+ * the patch and output. A patch without an index is applied on the calling
+ * thread by {@link GDiffPatcher} as usual.
+ */
+public class ParallelGDiffPatcher {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final int threads;
+
+    /**
+     * @param threads how many parts of the patch to apply at once
+     */
+    public ParallelGDiffPatcher(int threads) {
+        if (threads <= 0)
+            throw new IllegalArgumentException("threads " + threads);
+        this.threads = threads;
+    }
+
+    /**
+     * Patches the sources, concatenated in order, to the output file.
+     */
+    public void patch(File[] sources, File patchFile, File outputFile) throws IOException {
+        GDiffIndex index = GDiffIndex.read(patchFile);
+        if (index == null || index.size() == 1 || threads == 1) {
+            if (sources.length == 1) {
+                new GDiffPatcher().patch(sources[0], patchFile, outputFile);
+                return;
+            }
+            try (SeekableSource source = open(sources);
+                 InputStream patch = new FileInputStream(patchFile);
+                 OutputStream output = new BufferedOutputStream(new FileOutputStream(outputFile), BUFFER_SIZE)) {
+                new GDiffPatcher().patch(source, patch, output);
+            }
+            return;
+        }
+        try (RandomAccessFile output = new RandomAccessFile(outputFile, "rw")) {
+            output.setLength(0);
+            output.setLength(index.outputLength());
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, index.size()));
+        try {
+            List<Future<Void>> parts = new ArrayList<>();
+            for (int i = 0; i < index.size(); i++) {
+                int part = i;
+                parts.add(executor.submit(() -> {
+                    patchPart(sources, patchFile, outputFile, index, part);
+                    return null;
+                }));
+            }
+            for (Future<Void> part : parts)
+                await(part);
+        } finally {
+            // If one part failed, don't leave the rest running.
+            executor.shutdownNow();
+        }
+    }
+
+    private static void patchPart(File[] sources, File patchFile, File outputFile, GDiffIndex index, int part)
+            throws IOException {
+        try (SeekableSource source = open(sources);
+             FileChannel patch = FileChannel.open(patchFile.toPath(), StandardOpenOption.READ);
+             FileChannel output = FileChannel.open(outputFile.toPath(), StandardOpenOption.WRITE)) {
+            patch.position(index.patchOffset(part));
+            output.position(index.outputOffset(part));
+            new GDiffPatcher().patchPart(source, Channels.newInputStream(patch),
+                    new BufferedOutputStream(Channels.newOutputStream(output), BUFFER_SIZE), index.outputLength(part));
+        }
+    }
+
+    private static SeekableSource open(File[] sources) throws IOException {
+        if (sources.length == 1)
+            return new MappedFileSeekableSource(sources[0]);
+        return new ConcatSeekableSource(sources);
+    }
+
+    private static void await(Future<Void> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IOException(cause);
+        }
+    }
+}
@@ -66,7 +66,9 @@ public class RandomAccessFileSeekableSource implements SeekableSource {
     }
 
     public int read(ByteBuffer bb) throws IOException {
-        int c = raf.read(bb.array(), bb.position(), bb.remaining());
+        if (!bb.hasArray())
+            return raf.getChannel().read(bb);
+        int c = raf.read(bb.array(), bb.arrayOffset() + bb.position(), bb.remaining());
         if (c == -1)
             return -1;
         bb.position(bb.position() + c);
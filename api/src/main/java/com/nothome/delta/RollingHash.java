@@ -0,0 +1,50 @@
+/*
+ * RollingHash.java
+ *
+ * Copyright (c) 2015 Vinumeris GmbH
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in 
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS
+ * IN THE SOFTWARE.
+ *
+ */
+
+package com.nothome.delta;
+
+/**
+ * The rolling hash {@link Delta} uses to find target positions that may
+ * match a block of the source. A hit is only a hint: the bytes are
+ * compared before anything is copied, so a weaker hash mostly wastes time
+ * seeking the source for blocks that don't match. With
+ * {@link MatchStrategy#FIRST} a collision can also hide the block that
+ * would have matched.
+ */
+public enum RollingHash {
+
+    /**
+     * The original 32 bit Adler style sum over a table of 16 bit values.
+     * Cheap, but on large sources many unrelated positions share a sum.
+     */
+    ADLER32,
+
+    /**
+     * A 64 bit cyclic polynomial (buzhash) over a table of random 64 bit
+     * values. Costs a rotate or two more per byte and collides far less
+     * often on sources of hundreds of megabytes.
+     */
+    BUZHASH64
+}
@@ -25,7 +25,7 @@
 
 package com.nothome.delta.text;
 
-import gnu.trove.map.hash.TLongIntHashMap;
+import com.nothome.delta.ChecksumIndex;
 
 import java.io.IOException;
 import java.nio.CharBuffer;
@@ -37,7 +37,7 @@ public class Checksum {
 
     public static boolean debug = false;
 
-    protected TLongIntHashMap checksums = new TLongIntHashMap();
+    protected ChecksumIndex checksums = new ChecksumIndex();
 
     private static final char[] single_hash = com.nothome.delta.Checksum.getSingleHash();
 
@@ -94,8 +94,6 @@ public class Checksum {
     }
 
     public int findChecksumIndex(long hashf) {
-        if (!checksums.contains(hashf))
-            return -1;
         return checksums.get(hashf);
     }
 
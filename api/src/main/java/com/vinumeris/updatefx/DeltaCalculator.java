@@ -1,18 +1,36 @@
 package com.vinumeris.updatefx;
 
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
 import com.google.common.hash.HashingOutputStream;
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Futures;
+import com.nothome.delta.ConcatSeekableSource;
 import com.nothome.delta.Delta;
 import com.nothome.delta.GDiffWriter;
+import com.nothome.delta.MappedFileSeekableSource;
+import com.nothome.delta.MatchStrategy;
+import com.nothome.delta.SeekableSource;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.GZIPOutputStream;
 
 import static com.vinumeris.updatefx.Utils.println;
@@ -36,31 +54,212 @@ public class DeltaCalculator {
         public byte[] preHash, patchHash, postHash;
         public Path path;
         public long patchSize;
+        /** The jars the patch applies to, concatenated in this order. preHash is of the first. */
+        public List<Path> sources;
+        /** An alternative patch for the same version that also copies from older versions, if one was calculated. */
+        public Result multiSource;
+    }
+
+    /** Settings for how patches are calculated. The defaults produce the same patches as older versions. */
+    public static class Options {
+        /** Patches for this version and up are gzipped. -1 means gzip everything. */
+        public int gzipFrom = -1;
+        /** See {@link Delta#setChunkSize(int)}. */
+        public int chunkSize = Delta.DEFAULT_CHUNK_SIZE;
+        /** See {@link Delta#setMatchStrategy(MatchStrategy)}. */
+        public MatchStrategy matchStrategy = MatchStrategy.FIRST;
+        /**
+         * How many patches to calculate at once. Each one in flight holds an index of its source jar in memory, so
+         * raise this only as far as the heap allows.
+         */
+        public int threads = 1;
+        /**
+         * If set, every patch calculated is also stored here, named by a hash of its inputs and settings. When the
+         * same pair of jars is seen again with the same settings the stored patch is reused instead of recalculated,
+         * as long as it still matches the hash stored next to it.
+         */
+        public Path cacheDir;
+        /**
+         * If more than zero, up to this many versions before the previous one are also used as sources for an
+         * alternative patch, so that files which reappear from older releases can be copied instead of sent again.
+         * Only clients that still have all of those versions can use it. The index needs much more memory as it
+         * covers every source.
+         */
+        public int extraSources = 0;
+        /**
+         * If set, single source patches are calculated by {@link JarDelta}, which only diffs the entries that changed
+         * rather than the whole jar. Much faster and lighter on memory when few classes change between versions.
+         */
+        public boolean entryAware = false;
+        /**
+         * If more than zero, patches that aren't gzipped record where a command starts about every this many bytes of
+         * output, so clients can apply parts of a big patch on several threads at once. See
+         * {@link Updater#setPatchParallelism(int)}. Clients that don't know about it ignore it.
+         */
+        public long indexInterval = 0;
+        /**
+         * How many threads each single source patch scans the new jar with, see {@link Delta#setThreads(int)}. The
+         * patch is the same for any number above one, but may be slightly different from the one found by a single
+         * thread.
+         */
+        public int scanThreads = 1;
+
+        public Options() {
+        }
+
+        public Options(int gzipFrom) {
+            this.gzipFrom = gzipFrom;
+        }
+
+        /**
+         * Identifies a patch by everything that affects its contents. Anything that changes the bytes of the patch
+         * must be included here.
+         */
+        private String cacheKey(List<byte[]> preHashes, byte[] postHash, boolean gzipped) {
+            Hasher hasher = Hashing.sha256().newHasher();
+            for (byte[] preHash : preHashes)
+                hasher.putBytes(preHash);
+            // Only when set, so keys for patches calculated the old way stay the same.
+            if (entryAware && preHashes.size() == 1)
+                hasher.putString("entries", Charsets.UTF_8);
+            if (scanThreads > 1 && preHashes.size() == 1)
+                hasher.putString("ranges", Charsets.UTF_8);
+            if (indexInterval > 0 && !gzipped)
+                hasher.putString("index", Charsets.UTF_8).putLong(indexInterval);
+            return hasher
+                    .putBytes(postHash)
+                    .putInt(chunkSize)
+                    .putBoolean(gzipped)
+                    .putString(matchStrategy.name(), Charsets.UTF_8)
+                    .hash().toString();
+        }
+
+        private Delta newDelta() {
+            Delta delta = new Delta();
+            delta.setChunkSize(chunkSize);
+            delta.setMatchStrategy(matchStrategy);
+            delta.setThreads(scanThreads);
+            return delta;
+        }
     }
 
     public static List<Result> process(Path inDir, Path outDir, int gzipFrom) throws IOException {
-        List<Result> result = new ArrayList<>();
+        return process(inDir, outDir, new Options(gzipFrom));
+    }
+
+    public static List<Result> process(Path inDir, Path outDir, Options options) throws IOException {
+        List<Callable<Result>> tasks = new ArrayList<>();
         int num = 2;
         while (true) {
             Path cur = inDir.resolve(num + ".jar");
             Path prev = inDir.resolve((num - 1) + ".jar");
             if (!(isRegularFile(cur) && isRegularFile(prev)))
                 break;
-            println("Calculating delta between %s and %s", cur, prev);
-            Result deltaHashes = processFile(prev, cur, outDir, num, gzipFrom);
-            result.add(deltaHashes);
+            int n = num;
+            tasks.add(() -> processVersion(inDir, outDir, n, options));
             num++;
         }
+        List<Result> result = new ArrayList<>();
+        if (options.threads <= 1 || tasks.size() <= 1) {
+            for (Callable<Result> task : tasks)
+                result.add(call(task));
+            return result;
+        }
+        // Each pair is independent. The pool size bounds how many source indexes are in memory at once.
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(options.threads, tasks.size()));
+        try {
+            List<Future<Result>> futures = new ArrayList<>();
+            for (Callable<Result> task : tasks)
+                futures.add(executor.submit(task));
+            // Collect in version order so the result doesn't depend on scheduling.
+            for (Future<Result> future : futures)
+                result.add(Futures.get(future, IOException.class));
+        } finally {
+            executor.shutdownNow();
+        }
+        return result;
+    }
+
+    private static Result call(Callable<Result> task) throws IOException {
+        try {
+            return task.call();
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Calculates the patch from (num - 1).jar to num.jar in inDir and, if {@link Options#extraSources} is set and
+     * there are older versions to use, the multi source alternative to it.
+     */
+    public static Result processVersion(Path inDir, Path outDir, int num, Options options) throws IOException {
+        Path cur = inDir.resolve(num + ".jar");
+        Path prev = inDir.resolve((num - 1) + ".jar");
+        println("Calculating delta between %s and %s", cur, prev);
+        Result result = processFile(prev, cur, outDir, num, options);
+        List<Path> sources = new ArrayList<>();
+        sources.add(prev);
+        for (int i = 2; i <= options.extraSources + 1; i++) {
+            Path older = inDir.resolve((num - i) + ".jar");
+            if (!isRegularFile(older))
+                break;
+            sources.add(older);
+        }
+        if (sources.size() > 1) {
+            println("Calculating delta between %s and %s", cur, sources);
+            result.multiSource = processFile(sources, cur, outDir, num, options);
+        }
         return result;
     }
 
     public static Result processFile(Path prev, Path cur, Path outDir, int num, int gzipFrom) throws IOException {
+        return processFile(prev, cur, outDir, num, new Options(gzipFrom));
+    }
+
+    public static Result processFile(Path prev, Path cur, Path outDir, int num, Options options) throws IOException {
+        return processFile(Collections.singletonList(prev), cur, outDir, num, options);
+    }
+
+    /**
+     * Calculates a patch that turns the given sources, concatenated in order, into cur. With more than one source
+     * the patch is named like 3.jar.multi.bpatch so it can sit next to the normal one.
+     */
+    public static Result processFile(List<Path> sources, Path cur, Path outDir, int num, Options options) throws IOException {
         Result deltaHashes = new Result();
-        Path deltaFile = outDir.resolve(cur.getFileName().toString() + ".bpatch");
+        boolean multi = sources.size() > 1;
+        Path deltaFile = outDir.resolve(cur.getFileName().toString() + (multi ? ".multi.bpatch" : ".bpatch"));
         deleteIfExists(deltaFile);
         deltaHashes.path = deltaFile;
+        deltaHashes.sources = new ArrayList<>(sources);
+        List<byte[]> preHashes = new ArrayList<>();
+        for (Path source : sources)
+            preHashes.add(sha256(source));
+        deltaHashes.preHash = preHashes.get(0);
 
-        boolean isGzipping = num >= gzipFrom;
+        boolean isGzipping = num >= options.gzipFrom;
+        Path cached = null, cachedHash = null;
+        if (options.cacheDir != null) {
+            // The cache key needs this up front, otherwise it's hashed as the delta reads it.
+            deltaHashes.postHash = sha256(cur);
+            String key = options.cacheKey(preHashes, deltaHashes.postHash, isGzipping);
+            cached = options.cacheDir.resolve(key + ".bpatch");
+            cachedHash = options.cacheDir.resolve(key + ".sha256");
+            if (isRegularFile(cached) && isRegularFile(cachedHash)) {
+                copy(cached, deltaFile);
+                deltaHashes.patchHash = sha256(deltaFile);
+                // The hash was written after the patch, so a patch that was damaged since doesn't match it.
+                if (Arrays.equals(readAllBytes(cachedHash), deltaHashes.patchHash)) {
+                    deltaHashes.patchSize = Files.size(deltaFile);
+                    println("... cached: %s   (%.2fkb) %s", deltaFile, deltaHashes.patchSize / 1024.0, isGzipping ? "zipped" : "");
+                    return deltaHashes;
+                }
+                println("... cached patch %s is damaged, calculating it again", cached);
+                delete(deltaFile);
+                deltaHashes.patchHash = null;
+            }
+        }
         try (
             HashingOutputStream hashingStream = new HashingOutputStream(Hashing.sha256(),
                     new BufferedOutputStream(
@@ -76,18 +275,55 @@ public class DeltaCalculator {
                 writer = new GDiffWriter(zipStream);
             } else {
                 writer = new GDiffWriter(hashingStream);
+                if (options.indexInterval > 0)
+                    writer.setIndexInterval(options.indexInterval);
+            }
+            Delta delta = options.newDelta();
+            if (options.entryAware && !multi) {
+                new JarDelta(delta).compute(sources.get(0).toFile(), cur.toFile(), writer);
+            } else if (options.scanThreads > 1 && !multi) {
+                delta.compute(sources.get(0).toFile(), cur.toFile(), writer);
+            } else {
+                try (
+                    SeekableSource source = multi ? new ConcatSeekableSource(toFiles(sources)) : new MappedFileSeekableSource(sources.get(0).toFile());
+                    HashingInputStream target = new HashingInputStream(Hashing.sha256(),
+                            new BufferedInputStream(newInputStream(cur)))
+                ) {
+                    delta.compute(source, target, writer);
+                    // Delta reads to the end of the target, but make sure the hash covers all of it regardless.
+                    ByteStreams.copy(target, ByteStreams.nullOutputStream());
+                    if (deltaHashes.postHash == null)
+                        deltaHashes.postHash = target.hash().asBytes();
+                }
             }
-            Delta delta = new Delta();
-            deltaHashes.preHash = sha256(readAllBytes(prev));
-            delta.compute(prev.toFile(), cur.toFile(), writer);
             if (isGzipping)
                 zipStream.close();
             deltaHashes.patchHash = hashingStream.hash().asBytes();
-            deltaHashes.postHash = sha256(readAllBytes(cur));
         }
+        // The other paths read cur themselves, so hash it separately.
+        if (deltaHashes.postHash == null)
+            deltaHashes.postHash = sha256(cur);
         long size = Files.size(deltaFile);
         deltaHashes.patchSize = size;
+        if (cached != null) {
+            // Copy then rename, so a crash or a parallel run never leaves a truncated patch in the cache. Its hash
+            // goes in last, so a patch without one is never used.
+            createDirectories(options.cacheDir);
+            Path tmp = createTempFile(options.cacheDir, "patch", ".tmp");
+            copy(deltaFile, tmp, StandardCopyOption.REPLACE_EXISTING);
+            move(tmp, cached, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            tmp = createTempFile(options.cacheDir, "patch", ".tmp");
+            write(tmp, deltaHashes.patchHash);
+            move(tmp, cachedHash, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
         println("... done: %s   (%.2fkb) %s", deltaFile, size / 1024.0, isGzipping ? "zipped" : "");
         return deltaHashes;
     }
+
+    private static File[] toFiles(List<Path> paths) {
+        File[] files = new File[paths.size()];
+        for (int i = 0; i < files.length; i++)
+            files[i] = paths.get(i).toFile();
+        return files;
+    }
 }
@@ -0,0 +1,259 @@
+package com.vinumeris.updatefx;
+
+import com.nothome.delta.ByteBufferSeekableSource;
+import com.nothome.delta.CoalescingDiffWriter;
+import com.nothome.delta.Delta;
+import com.nothome.delta.DiffWriter;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Calculates a delta between two jars one entry at a time instead of over the whole file. Entries are matched up by
+ * name and by content: an entry that is the same as in the source becomes a single COPY of it, and only entries that
+ * changed are run through {@link Delta}, against the old entry of the same name. Entries with no counterpart in the
+ * source are sent as data. That makes a release in which few classes changed quick to diff, and the only index ever
+ * built is of one entry rather than of the whole source jar.<p>
+ *
+ * The output is an ordinary GDIFF patch of the whole file, so it applies exactly like one from {@link Delta}. It
+ * expects jars as written by ProcessZIP, ie. stored rather than deflated. If either file can't be read as a zip
+ * (including zip64 archives) it falls back to diffing the whole file.
+ */
+public class JarDelta {
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_HEADER = 0x06054b50;
+    private static final int END_SIZE = 22;
+
+    private final Delta delta;
+
+    /** @param delta used to diff the entries that changed and the parts of the files outside entries. */
+    public JarDelta(Delta delta) {
+        this.delta = delta;
+    }
+
+    /**
+     * Compares the source jar with the target jar, writing to output.
+     *
+     * @param output will be closed
+     */
+    public void compute(File sourceFile, File targetFile, DiffWriter output) throws IOException {
+        try (FileChannel sourceChannel = FileChannel.open(sourceFile.toPath(), StandardOpenOption.READ);
+             FileChannel targetChannel = FileChannel.open(targetFile.toPath(), StandardOpenOption.READ)) {
+            if (sourceChannel.size() > Integer.MAX_VALUE || targetChannel.size() > Integer.MAX_VALUE) {
+                delta.compute(sourceFile, targetFile, output);
+                return;
+            }
+            ByteBuffer source = sourceChannel.map(FileChannel.MapMode.READ_ONLY, 0, sourceChannel.size());
+            ByteBuffer target = targetChannel.map(FileChannel.MapMode.READ_ONLY, 0, targetChannel.size());
+            Jar sourceJar = Jar.read(source);
+            Jar targetJar = Jar.read(target);
+            if (sourceJar == null || targetJar == null) {
+                delta.compute(sourceFile, targetFile, output);
+                return;
+            }
+            // A run of unchanged entries comes out as a copy per entry, and a tiny entry that moved as a copy that costs
+            // more than its data. Both are tidied up on the way out.
+            compute(source, sourceJar, target, targetJar,
+                    new CoalescingDiffWriter(output, new ByteBufferSeekableSource(source.duplicate())));
+        }
+    }
+
+    private void compute(ByteBuffer source, Jar sourceJar, ByteBuffer target, Jar targetJar, DiffWriter output) throws IOException {
+        Map<String, Entry> byName = new HashMap<>();
+        Map<Long, List<Entry>> byContent = new HashMap<>();
+        for (Entry entry : sourceJar.entries) {
+            byName.put(entry.name, entry);
+            byContent.computeIfAbsent(entry.contentKey(), k -> new ArrayList<>()).add(entry);
+        }
+
+        // Anything before the first entry, which is normally nothing.
+        int sourceStart = sourceJar.entries.isEmpty() ? sourceJar.centralDirectory : sourceJar.entries.get(0).start;
+        int targetStart = targetJar.entries.isEmpty() ? targetJar.centralDirectory : targetJar.entries.get(0).start;
+        diff(source, 0, sourceStart, target, 0, targetStart, output);
+
+        for (Entry entry : targetJar.entries) {
+            Entry old = byName.get(entry.name);
+            if (old != null && slice(source, old.start, old.end).equals(slice(target, entry.start, entry.end))) {
+                output.addCopy(old.start, old.end - old.start);
+                continue;
+            }
+            Entry moved = findContent(byContent.get(entry.contentKey()), source, target, entry);
+            if (moved != null) {
+                // Renamed or with a different header, but the same bytes. Only the header is sent.
+                addData(target, entry.start, entry.dataStart, output);
+                output.addCopy(moved.dataStart, moved.dataEnd - moved.dataStart);
+                addData(target, entry.dataEnd, entry.end, output);
+            } else if (old != null) {
+                diff(source, old.start, old.end, target, entry.start, entry.end, output);
+            } else {
+                addData(target, entry.start, entry.end, output);
+            }
+        }
+
+        // The central directory lists the same names as before, mostly with shifted offsets.
+        diff(source, sourceJar.centralDirectory, source.capacity(), target, targetJar.centralDirectory, target.capacity(), output);
+        output.close();
+    }
+
+    private static Entry findContent(List<Entry> candidates, ByteBuffer source, ByteBuffer target, Entry entry) {
+        if (candidates == null || entry.dataEnd == entry.dataStart)
+            return null;
+        ByteBuffer data = slice(target, entry.dataStart, entry.dataEnd);
+        for (Entry candidate : candidates) {
+            // The CRC only narrows it down, the bytes have to match.
+            if (slice(source, candidate.dataStart, candidate.dataEnd).equals(data))
+                return candidate;
+        }
+        return null;
+    }
+
+    /** Diffs the target range against the source range, as if they were whole files. */
+    private void diff(ByteBuffer source, int sourceStart, int sourceEnd, ByteBuffer target, int targetStart, int targetEnd,
+                      DiffWriter output) throws IOException {
+        if (targetStart == targetEnd)
+            return;
+        if (sourceStart == sourceEnd) {
+            addData(target, targetStart, targetEnd, output);
+            return;
+        }
+        byte[] bits = new byte[targetEnd - targetStart];
+        slice(target, targetStart, targetEnd).get(bits);
+        delta.compute(new ByteBufferSeekableSource(slice(source, sourceStart, sourceEnd)), new ByteArrayInputStream(bits),
+                new OffsetWriter(output, sourceStart));
+    }
+
+    private static void addData(ByteBuffer target, int start, int end, DiffWriter output) throws IOException {
+        if (start == end)
+            return;
+        byte[] bits = new byte[end - start];
+        slice(target, start, end).get(bits);
+        output.addData(bits, 0, bits.length);
+    }
+
+    private static ByteBuffer slice(ByteBuffer buf, int start, int end) {
+        ByteBuffer dup = buf.duplicate();
+        dup.limit(end).position(start);
+        return dup.slice();
+    }
+
+    /** Passes a diff of part of the source through to the real output, with copies moved to where that part is. */
+    private static class OffsetWriter implements DiffWriter {
+        private final DiffWriter output;
+        private final long base;
+
+        OffsetWriter(DiffWriter output, long base) {
+            this.output = output;
+            this.base = base;
+        }
+
+        @Override
+        public void addCopy(long offset, int length) throws IOException {
+            output.addCopy(base + offset, length);
+        }
+
+        @Override
+        public void addData(byte b) throws IOException {
+            output.addData(b);
+        }
+
+        @Override
+        public void addData(byte[] b, int off, int len) throws IOException {
+            output.addData(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            output.flush();
+        }
+
+        /** Delta closes its output when done, but the real one still has the rest of the file to come. */
+        @Override
+        public void close() throws IOException {
+        }
+    }
+
+    /** Where an entry is in its file. The entry runs from its local header up to the start of the next one. */
+    private static class Entry {
+        String name;
+        int crc, size;
+        int start, end, dataStart, dataEnd;
+
+        long contentKey() {
+            return ((long) crc << 32) | (size & 0xFFFFFFFFL);
+        }
+    }
+
+    private static class Jar {
+        List<Entry> entries = new ArrayList<>();
+        int centralDirectory;
+
+        /** Reads the central directory, or returns null if the file doesn't look like a zip we can take apart. */
+        static Jar read(ByteBuffer file) {
+            ByteBuffer buf = file.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            int length = buf.capacity();
+            int end = -1;
+            for (int i = length - END_SIZE; i >= Math.max(0, length - END_SIZE - 0xFFFF); i--) {
+                if (buf.getInt(i) == END_HEADER) {
+                    end = i;
+                    break;
+                }
+            }
+            if (end == -1)
+                return null;
+            int count = buf.getShort(end + 10) & 0xFFFF;
+            long cdSize = buf.getInt(end + 12) & 0xFFFFFFFFL;
+            long cdOffset = buf.getInt(end + 16) & 0xFFFFFFFFL;
+            if (cdOffset + cdSize > end)
+                return null;   // zip64, or corrupt.
+            Jar jar = new Jar();
+            jar.centralDirectory = (int) cdOffset;
+            int pos = (int) cdOffset;
+            for (int i = 0; i < count; i++) {
+                if (pos + 46 > end || buf.getInt(pos) != CENTRAL_HEADER)
+                    return null;
+                Entry entry = new Entry();
+                entry.crc = buf.getInt(pos + 16);
+                entry.size = buf.getInt(pos + 20);
+                int nameLength = buf.getShort(pos + 28) & 0xFFFF;
+                int extraLength = buf.getShort(pos + 30) & 0xFFFF;
+                int commentLength = buf.getShort(pos + 32) & 0xFFFF;
+                long start = buf.getInt(pos + 42) & 0xFFFFFFFFL;
+                if (pos + 46 + nameLength > end || start + 30 > cdOffset)
+                    return null;
+                byte[] name = new byte[nameLength];
+                ((ByteBuffer) buf.duplicate().position(pos + 46)).get(name);
+                // Names are only compared with each other, so the encoding doesn't matter as long as it's lossless.
+                entry.name = new String(name, StandardCharsets.ISO_8859_1);
+                entry.start = (int) start;
+                if (buf.getInt(entry.start) != LOCAL_HEADER)
+                    return null;
+                entry.dataStart = entry.start + 30 + (buf.getShort(entry.start + 26) & 0xFFFF) + (buf.getShort(entry.start + 28) & 0xFFFF);
+                entry.dataEnd = entry.dataStart + entry.size;
+                if (entry.size < 0 || entry.dataEnd > cdOffset || entry.dataEnd < entry.dataStart)
+                    return null;
+                jar.entries.add(entry);
+                pos += 46 + nameLength + extraLength + commentLength;
+            }
+            jar.entries.sort((a, b) -> Integer.compare(a.start, b.start));
+            for (int i = 0; i < jar.entries.size(); i++) {
+                Entry entry = jar.entries.get(i);
+                entry.end = i + 1 < jar.entries.size() ? jar.entries.get(i + 1).start : jar.centralDirectory;
+                // Entries must not overlap, or copying one would drag part of another along.
+                if (entry.end < entry.dataEnd)
+                    return null;
+            }
+            return jar;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.vinumeris.updatefx;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Remembers how fast each mirror host was and how often it failed, so that downloads can go to the best one first
+ * and fall back to the others. The numbers are kept in a properties file in the updates directory so they carry over
+ * between runs of the app.
+ */
+class MirrorStats {
+    private static final Logger log = LoggerFactory.getLogger(MirrorStats.class);
+
+    static final String FILE_NAME = "mirror-stats.properties";
+
+    // How much a new throughput measurement counts for against the ones from previous downloads.
+    private static final double THROUGHPUT_WEIGHT = 0.3;
+
+    private static class Host {
+        double throughput;   // Bytes per second, 0 if never measured.
+        double failures;     // Halved on every success, so old failures are gradually forgotten.
+    }
+
+    private final Path file;
+    private final Map<String, Host> hosts = new HashMap<>();
+
+    private MirrorStats(Path file) {
+        this.file = file;
+    }
+
+    /** Reads the stats from the given updates directory. Missing or unreadable stats just mean we know nothing yet. */
+    static MirrorStats load(Path updatesDir) {
+        MirrorStats stats = new MirrorStats(updatesDir.resolve(FILE_NAME));
+        if (!Files.isRegularFile(stats.file))
+            return stats;
+        Properties props = new Properties();
+        try (InputStream stream = Files.newInputStream(stats.file)) {
+            props.load(stream);
+            for (String key : props.stringPropertyNames()) {
+                int dot = key.lastIndexOf('.');
+                if (dot == -1) continue;
+                Host host = stats.host(key.substring(0, dot));
+                double value = Double.parseDouble(props.getProperty(key));
+                switch (key.substring(dot + 1)) {
+                    case "throughput": host.throughput = value; break;
+                    case "failures": host.failures = value; break;
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            log.warn("Could not read mirror stats from {}, ignoring them", stats.file, e);
+            stats.hosts.clear();
+        }
+        return stats;
+    }
+
+    synchronized void save() throws IOException {
+        Properties props = new Properties();
+        for (Map.Entry<String, Host> entry : hosts.entrySet()) {
+            props.setProperty(entry.getKey() + ".throughput", String.valueOf(entry.getValue().throughput));
+            props.setProperty(entry.getKey() + ".failures", String.valueOf(entry.getValue().failures));
+        }
+        Path tmp = file.resolveSibling(FILE_NAME + ".tmp");
+        try (OutputStream stream = Files.newOutputStream(tmp)) {
+            props.store(stream, "UpdateFX mirror statistics");
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Returns the given URLs in the order they should be tried. Hosts we never downloaded from come first, in random
+     * order, so every mirror gets measured at some point. The rest are sorted by throughput, discounted by how often
+     * they failed recently.
+     */
+    synchronized List<URI> rank(List<URI> urls) {
+        List<URI> unknown = new ArrayList<>();
+        List<URI> known = new ArrayList<>();
+        for (URI url : urls)
+            (hosts.containsKey(key(url)) ? known : unknown).add(url);
+        Collections.shuffle(unknown);
+        known.sort(Comparator.comparingDouble((URI url) -> score(hosts.get(key(url)))).reversed());
+        unknown.addAll(known);
+        return unknown;
+    }
+
+    synchronized void recordSuccess(URI url, long bytes, long nanos) {
+        Host host = host(key(url));
+        double throughput = bytes / (Math.max(nanos, 1) / 1e9);
+        if (host.throughput == 0)
+            host.throughput = throughput;
+        else
+            host.throughput = THROUGHPUT_WEIGHT * throughput + (1 - THROUGHPUT_WEIGHT) * host.throughput;
+        host.failures /= 2;
+    }
+
+    synchronized void recordFailure(URI url) {
+        host(key(url)).failures++;
+    }
+
+    private static double score(Host host) {
+        return host.throughput / (1 + host.failures);
+    }
+
+    private Host host(String key) {
+        return hosts.computeIfAbsent(key, k -> new Host());
+    }
+
+    private static String key(URI url) {
+        return url.getAuthority() != null ? url.getAuthority() : url.getScheme();
+    }
+}
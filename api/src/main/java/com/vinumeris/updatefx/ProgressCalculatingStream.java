@@ -30,7 +30,7 @@ public class ProgressCalculatingStream extends FilterInputStream {
     public int read() throws IOException {
         int result = super.read();
         if (result != -1) {
-            readSoFar += result;
+            readSoFar++;
             update();
         }
         return result;
@@ -1004,6 +1004,38 @@ public final class UFXProtocol {
      */
     com.vinumeris.updatefx.UFXProtocol.UpdateDescriptionOrBuilder getDescriptionOrBuilder(
         int index);
+
+    // repeated uint32 source_versions = 9;
+    /**
+     * <code>repeated uint32 source_versions = 9;</code>
+     *
+     * <pre>
+     * The versions of the jars the patch applies to, concatenated in this order. Empty means just the previous
+     * version, which is what pre_hash is of. Otherwise the first is the previous version and the rest are older
+     * versions the client must also still have.
+     * </pre>
+     */
+    java.util.List<java.lang.Integer> getSourceVersionsList();
+    /**
+     * <code>repeated uint32 source_versions = 9;</code>
+     *
+     * <pre>
+     * The versions of the jars the patch applies to, concatenated in this order. Empty means just the previous
+     * version, which is what pre_hash is of. Otherwise the first is the previous version and the rest are older
+     * versions the client must also still have.
+     * </pre>
+     */
+    int getSourceVersionsCount();
+    /**
+     * <code>repeated uint32 source_versions = 9;</code>
+     *
+     * <pre>
+     * The versions of the jars the patch applies to, concatenated in this order. Empty means just the previous
+     * version, which is what pre_hash is of. Otherwise the first is the previous version and the rest are older
+     * versions the client must also still have.
+     * </pre>
+     */
+    int getSourceVersions(int index);
   }
   /**
    * Protobuf type {@code com.vinumeris.updatefx.Update}
@@ -1102,6 +1134,27 @@ public final class UFXProtocol {
               description_.add(input.readMessage(com.vinumeris.updatefx.UFXProtocol.UpdateDescription.PARSER, extensionRegistry));
               break;
             }
+            case 72: {
+              if (!((mutable_bitField0_ & 0x00000100) == 0x00000100)) {
+                sourceVersions_ = new java.util.ArrayList<java.lang.Integer>();
+                mutable_bitField0_ |= 0x00000100;
+              }
+              sourceVersions_.add(input.readUInt32());
+              break;
+            }
+            case 74: {
+              int length = input.readRawVarint32();
+              int limit = input.pushLimit(length);
+              if (!((mutable_bitField0_ & 0x00000100) == 0x00000100) && input.getBytesUntilLimit() > 0) {
+                sourceVersions_ = new java.util.ArrayList<java.lang.Integer>();
+                mutable_bitField0_ |= 0x00000100;
+              }
+              while (input.getBytesUntilLimit() > 0) {
+                sourceVersions_.add(input.readUInt32());
+              }
+              input.popLimit(limit);
+              break;
+            }
           }
         }
       } catch (com.google.protobuf.InvalidProtocolBufferException e) {
@@ -1116,6 +1169,9 @@ public final class UFXProtocol {
         if (((mutable_bitField0_ & 0x00000080) == 0x00000080)) {
           description_ = java.util.Collections.unmodifiableList(description_);
         }
+        if (((mutable_bitField0_ & 0x00000100) == 0x00000100)) {
+          sourceVersions_ = java.util.Collections.unmodifiableList(sourceVersions_);
+        }
         this.unknownFields = unknownFields.build();
         makeExtensionsImmutable();
       }
@@ -1360,6 +1416,47 @@ public final class UFXProtocol {
       return description_.get(index);
     }
 
+    // repeated uint32 source_versions = 9;
+    public static final int SOURCE_VERSIONS_FIELD_NUMBER = 9;
+    private java.util.List<java.lang.Integer> sourceVersions_;
+    /**
+     * <code>repeated uint32 source_versions = 9;</code>
+     *
+     * <pre>
+     * The versions of the jars the patch applies to, concatenated in this order. Empty means just the previous
+     * version, which is what pre_hash is of. Otherwise the first is the previous version and the rest are older
+     * versions the client must also still have.
+     * </pre>
+     */
+    public java.util.List<java.lang.Integer>
+        getSourceVersionsList() {
+      return sourceVersions_;
+    }
+    /**
+     * <code>repeated uint32 source_versions = 9;</code>
+     *
+     * <pre>
+     * The versions of the jars the patch applies to, concatenated in this order. Empty means just the previous
+     * version, which is what pre_hash is of. Otherwise the first is the previous version and the rest are older
+     * versions the client must also still have.
+     * </pre>
+     */
+    public int getSourceVersionsCount() {
+      return sourceVersions_.size();
+    }
+    /**
+     * <code>repeated uint32 source_versions = 9;</code>
+     *
+     * <pre>
+     * The versions of the jars the patch applies to, concatenated in this order. Empty means just the previous
+     * version, which is what pre_hash is of. Otherwise the first is the previous version and the rest are older
+     * versions the client must also still have.
+     * </pre>
+     */
+    public int getSourceVersions(int index) {
+      return sourceVersions_.get(index);
+    }
+
     private void initFields() {
       urls_ = com.google.protobuf.LazyStringArrayList.EMPTY;
       patchHash_ = com.google.protobuf.ByteString.EMPTY;
@@ -1369,6 +1466,7 @@ public final class UFXProtocol {
       patchSize_ = 0L;
       gzipped_ = false;
       description_ = java.util.Collections.emptyList();
+      sourceVersions_ = java.util.Collections.emptyList();
     }
     private byte memoizedIsInitialized = -1;
     public final boolean isInitialized() {
@@ -1432,6 +1530,9 @@ public final class UFXProtocol {
       for (int i = 0; i < description_.size(); i++) {
         output.writeMessage(8, description_.get(i));
       }
+      for (int i = 0; i < sourceVersions_.size(); i++) {
+        output.writeUInt32(9, sourceVersions_.get(i));
+      }
       getUnknownFields().writeTo(output);
     }
 
@@ -1478,6 +1579,15 @@ public final class UFXProtocol {
         size += com.google.protobuf.CodedOutputStream
           .computeMessageSize(8, description_.get(i));
       }
+      {
+        int dataSize = 0;
+        for (int i = 0; i < sourceVersions_.size(); i++) {
+          dataSize += com.google.protobuf.CodedOutputStream
+            .computeUInt32SizeNoTag(sourceVersions_.get(i));
+        }
+        size += dataSize;
+        size += 1 * getSourceVersionsList().size();
+      }
       size += getUnknownFields().getSerializedSize();
       memoizedSerializedSize = size;
       return size;
@@ -1615,6 +1725,8 @@ public final class UFXProtocol {
         } else {
           descriptionBuilder_.clear();
         }
+        sourceVersions_ = java.util.Collections.emptyList();
+        bitField0_ = (bitField0_ & ~0x00000100);
         return this;
       }
 
@@ -1682,6 +1794,11 @@ public final class UFXProtocol {
         } else {
           result.description_ = descriptionBuilder_.build();
         }
+        if (((bitField0_ & 0x00000100) == 0x00000100)) {
+          sourceVersions_ = java.util.Collections.unmodifiableList(sourceVersions_);
+          bitField0_ = (bitField0_ & ~0x00000100);
+        }
+        result.sourceVersions_ = sourceVersions_;
         result.bitField0_ = to_bitField0_;
         onBuilt();
         return result;
@@ -1752,6 +1869,16 @@ public final class UFXProtocol {
             }
           }
         }
+        if (!other.sourceVersions_.isEmpty()) {
+          if (sourceVersions_.isEmpty()) {
+            sourceVersions_ = other.sourceVersions_;
+            bitField0_ = (bitField0_ & ~0x00000100);
+          } else {
+            ensureSourceVersionsIsMutable();
+            sourceVersions_.addAll(other.sourceVersions_);
+          }
+          onChanged();
+        }
         this.mergeUnknownFields(other.getUnknownFields());
         return this;
       }
@@ -2449,6 +2576,114 @@ public final class UFXProtocol {
         return descriptionBuilder_;
       }
 
+      // repeated uint32 source_versions = 9;
+      private java.util.List<java.lang.Integer> sourceVersions_ = java.util.Collections.emptyList();
+      private void ensureSourceVersionsIsMutable() {
+        if (!((bitField0_ & 0x00000100) == 0x00000100)) {
+          sourceVersions_ = new java.util.ArrayList<java.lang.Integer>(sourceVersions_);
+          bitField0_ |= 0x00000100;
+         }
+      }
+      /**
+       * <code>repeated uint32 source_versions = 9;</code>
+       *
+       * <pre>
+       * The versions of the jars the patch applies to, concatenated in this order. Empty means just the previous
+       * version, which is what pre_hash is of. Otherwise the first is the previous version and the rest are older
+       * versions the client must also still have.
+       * </pre>
+       */
+      public java.util.List<java.lang.Integer>
+          getSourceVersionsList() {
+        return java.util.Collections.unmodifiableList(sourceVersions_);
+      }
+      /**
+       * <code>repeated uint32 source_versions = 9;</code>
+       *
+       * <pre>
+       * The versions of the jars the patch applies to, concatenated in this order. Empty means just the previous
+       * version, which is what pre_hash is of. Otherwise the first is the previous version and the rest are older
+       * versions the client must also still have.
+       * </pre>
+       */
+      public int getSourceVersionsCount() {
+        return sourceVersions_.size();
+      }
+      /**
+       * <code>repeated uint32 source_versions = 9;</code>
+       *
+       * <pre>
+       * The versions of the jars the patch applies to, concatenated in this order. Empty means just the previous
+       * version, which is what pre_hash is of. Otherwise the first is the previous version and the rest are older
+       * versions the client must also still have.
+       * </pre>
+       */
+      public int getSourceVersions(int index) {
+        return sourceVersions_.get(index);
+      }
+      /**
+       * <code>repeated uint32 source_versions = 9;</code>
+       *
+       * <pre>
+       * The versions of the jars the patch applies to, concatenated in this order. Empty means just the previous
+       * version, which is what pre_hash is of. Otherwise the first is the previous version and the rest are older
+       * versions the client must also still have.
+       * </pre>
+       */
+      public Builder setSourceVersions(
+          int index, int value) {
+        ensureSourceVersionsIsMutable();
+        sourceVersions_.set(index, value);
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>repeated uint32 source_versions = 9;</code>
+       *
+       * <pre>
+       * The versions of the jars the patch applies to, concatenated in this order. Empty means just the previous
+       * version, which is what pre_hash is of. Otherwise the first is the previous version and the rest are older
+       * versions the client must also still have.
+       * </pre>
+       */
+      public Builder addSourceVersions(int value) {
+        ensureSourceVersionsIsMutable();
+        sourceVersions_.add(value);
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>repeated uint32 source_versions = 9;</code>
+       *
+       * <pre>
+       * The versions of the jars the patch applies to, concatenated in this order. Empty means just the previous
+       * version, which is what pre_hash is of. Otherwise the first is the previous version and the rest are older
+       * versions the client must also still have.
+       * </pre>
+       */
+      public Builder addAllSourceVersions(
+          java.lang.Iterable<? extends java.lang.Integer> values) {
+        ensureSourceVersionsIsMutable();
+        super.addAll(values, sourceVersions_);
+        onChanged();
+        return this;
+      }
+      /**
+       * <code>repeated uint32 source_versions = 9;</code>
+       *
+       * <pre>
+       * The versions of the jars the patch applies to, concatenated in this order. Empty means just the previous
+       * version, which is what pre_hash is of. Otherwise the first is the previous version and the rest are older
+       * versions the client must also still have.
+       * </pre>
+       */
+      public Builder clearSourceVersions() {
+        sourceVersions_ = java.util.Collections.emptyList();
+        bitField0_ = (bitField0_ & ~0x00000100);
+        onChanged();
+        return this;
+      }
+
       // @@protoc_insertion_point(builder_scope:com.vinumeris.updatefx.Update)
     }
 
@@ -2509,6 +2744,61 @@ public final class UFXProtocol {
      */
     com.vinumeris.updatefx.UFXProtocol.UpdateOrBuilder getUpdatesOrBuilder(
         int index);
+
+    // repeated .com.vinumeris.updatefx.Update multi_source_updates = 3;
+    /**
+     * <code>repeated .com.vinumeris.updatefx.Update multi_source_updates = 3;</code>
+     *
+     * <pre>
+     * Alternatives to entries in updates, with the same version, that patch against several earlier versions at
+     * once (see Update.source_versions) and so can reuse files that reappear from older releases. A client only uses
+     * one if it has all of the sources, otherwise it falls back to the entry in updates, as older clients always do.
+     * </pre>
+     */
+    java.util.List<com.vinumeris.updatefx.UFXProtocol.Update> 
+        getMultiSourceUpdatesList();
+    /**
+     * <code>repeated .com.vinumeris.updatefx.Update multi_source_updates = 3;</code>
+     *
+     * <pre>
+     * Alternatives to entries in updates, with the same version, that patch against several earlier versions at
+     * once (see Update.source_versions) and so can reuse files that reappear from older releases. A client only uses
+     * one if it has all of the sources, otherwise it falls back to the entry in updates, as older clients always do.
+     * </pre>
+     */
+    com.vinumeris.updatefx.UFXProtocol.Update getMultiSourceUpdates(int index);
+    /**
+     * <code>repeated .com.vinumeris.updatefx.Update multi_source_updates = 3;</code>
+     *
+     * <pre>
+     * Alternatives to entries in updates, with the same version, that patch against several earlier versions at
+     * once (see Update.source_versions) and so can reuse files that reappear from older releases. A client only uses
+     * one if it has all of the sources, otherwise it falls back to the entry in updates, as older clients always do.
+     * </pre>
+     */
+    int getMultiSourceUpdatesCount();
+    /**
+     * <code>repeated .com.vinumeris.updatefx.Update multi_source_updates = 3;</code>
+     *
+     * <pre>
+     * Alternatives to entries in updates, with the same version, that patch against several earlier versions at
+     * once (see Update.source_versions) and so can reuse files that reappear from older releases. A client only uses
+     * one if it has all of the sources, otherwise it falls back to the entry in updates, as older clients always do.
+     * </pre>
+     */
+    java.util.List<? extends com.vinumeris.updatefx.UFXProtocol.UpdateOrBuilder> 
+        getMultiSourceUpdatesOrBuilderList();
+    /**
+     * <code>repeated .com.vinumeris.updatefx.Update multi_source_updates = 3;</code>
+     *
+     * <pre>
+     * Alternatives to entries in updates, with the same version, that patch against several earlier versions at
+     * once (see Update.source_versions) and so can reuse files that reappear from older releases. A client only uses
+     * one if it has all of the sources, otherwise it falls back to the entry in updates, as older clients always do.
+     * </pre>
+     */
+    com.vinumeris.updatefx.UFXProtocol.UpdateOrBuilder getMultiSourceUpdatesOrBuilder(
+        int index);
   }
   /**
    * Protobuf type {@code com.vinumeris.updatefx.Updates}
@@ -2574,6 +2864,14 @@ public final class UFXProtocol {
               updates_.add(input.readMessage(com.vinumeris.updatefx.UFXProtocol.Update.PARSER, extensionRegistry));
               break;
             }
+            case 26: {
+              if (!((mutable_bitField0_ & 0x00000004) == 0x00000004)) {
+                multiSourceUpdates_ = new java.util.ArrayList<com.vinumeris.updatefx.UFXProtocol.Update>();
+                mutable_bitField0_ |= 0x00000004;
+              }
+              multiSourceUpdates_.add(input.readMessage(com.vinumeris.updatefx.UFXProtocol.Update.PARSER, extensionRegistry));
+              break;
+            }
           }
         }
       } catch (com.google.protobuf.InvalidProtocolBufferException e) {
@@ -2585,6 +2883,9 @@ public final class UFXProtocol {
         if (((mutable_bitField0_ & 0x00000002) == 0x00000002)) {
           updates_ = java.util.Collections.unmodifiableList(updates_);
         }
+        if (((mutable_bitField0_ & 0x00000004) == 0x00000004)) {
+          multiSourceUpdates_ = java.util.Collections.unmodifiableList(multiSourceUpdates_);
+        }
         this.unknownFields = unknownFields.build();
         makeExtensionsImmutable();
       }
@@ -2681,9 +2982,76 @@ public final class UFXProtocol {
       return updates_.get(index);
     }
 
+    // repeated .com.vinumeris.updatefx.Update multi_source_updates = 3;
+    public static final int MULTI_SOURCE_UPDATES_FIELD_NUMBER = 3;
+    private java.util.List<com.vinumeris.updatefx.UFXProtocol.Update> multiSourceUpdates_;
+    /**
+     * <code>repeated .com.vinumeris.updatefx.Update multi_source_updates = 3;</code>
+     *
+     * <pre>
+     * Alternatives to entries in updates, with the same version, that patch against several earlier versions at
+     * once (see Update.source_versions) and so can reuse files that reappear from older releases. A client only uses
+     * one if it has all of the sources, otherwise it falls back to the entry in updates, as older clients always do.
+     * </pre>
+     */
+    public java.util.List<com.vinumeris.updatefx.UFXProtocol.Update> getMultiSourceUpdatesList() {
+      return multiSourceUpdates_;
+    }
+    /**
+     * <code>repeated .com.vinumeris.updatefx.Update multi_source_updates = 3;</code>
+     *
+     * <pre>
+     * Alternatives to entries in updates, with the same version, that patch against several earlier versions at
+     * once (see Update.source_versions) and so can reuse files that reappear from older releases. A client only uses
+     * one if it has all of the sources, otherwise it falls back to the entry in updates, as older clients always do.
+     * </pre>
+     */
+    public java.util.List<? extends com.vinumeris.updatefx.UFXProtocol.UpdateOrBuilder> 
+        getMultiSourceUpdatesOrBuilderList() {
+      return multiSourceUpdates_;
+    }
+    /**
+     * <code>repeated .com.vinumeris.updatefx.Update multi_source_updates = 3;</code>
+     *
+     * <pre>
+     * Alternatives to entries in updates, with the same version, that patch against several earlier versions at
+     * once (see Update.source_versions) and so can reuse files that reappear from older releases. A client only uses
+     * one if it has all of the sources, otherwise it falls back to the entry in updates, as older clients always do.
+     * </pre>
+     */
+    public int getMultiSourceUpdatesCount() {
+      return multiSourceUpdates_.size();
+    }
+    /**
+     * <code>repeated .com.vinumeris.updatefx.Update multi_source_updates = 3;</code>
+     *
+     * <pre>
+     * Alternatives to entries in updates, with the same version, that patch against several earlier versions at
+     * once (see Update.source_versions) and so can reuse files that reappear from older releases. A client only uses
+     * one if it has all of the sources, otherwise it falls back to the entry in updates, as older clients always do.
+     * </pre>
+     */
+    public com.vinumeris.updatefx.UFXProtocol.Update getMultiSourceUpdates(int index) {
+      return multiSourceUpdates_.get(index);
+    }
+    /**
+     * <code>repeated .com.vinumeris.updatefx.Update multi_source_updates = 3;</code>
+     *
+     * <pre>
+     * Alternatives to entries in updates, with the same version, that patch against several earlier versions at
+     * once (see Update.source_versions) and so can reuse files that reappear from older releases. A client only uses
+     * one if it has all of the sources, otherwise it falls back to the entry in updates, as older clients always do.
+     * </pre>
+     */
+    public com.vinumeris.updatefx.UFXProtocol.UpdateOrBuilder getMultiSourceUpdatesOrBuilder(
+        int index) {
+      return multiSourceUpdates_.get(index);
+    }
+
     private void initFields() {
       version_ = 0;
       updates_ = java.util.Collections.emptyList();
+      multiSourceUpdates_ = java.util.Collections.emptyList();
     }
     private byte memoizedIsInitialized = -1;
     public final boolean isInitialized() {
@@ -2700,6 +3068,12 @@ public final class UFXProtocol {
           return false;
         }
       }
+      for (int i = 0; i < getMultiSourceUpdatesCount(); i++) {
+        if (!getMultiSourceUpdates(i).isInitialized()) {
+          memoizedIsInitialized = 0;
+          return false;
+        }
+      }
       memoizedIsInitialized = 1;
       return true;
     }
@@ -2713,6 +3087,9 @@ public final class UFXProtocol {
       for (int i = 0; i < updates_.size(); i++) {
         output.writeMessage(2, updates_.get(i));
       }
+      for (int i = 0; i < multiSourceUpdates_.size(); i++) {
+        output.writeMessage(3, multiSourceUpdates_.get(i));
+      }
       getUnknownFields().writeTo(output);
     }
 
@@ -2730,6 +3107,10 @@ public final class UFXProtocol {
         size += com.google.protobuf.CodedOutputStream
           .computeMessageSize(2, updates_.get(i));
       }
+      for (int i = 0; i < multiSourceUpdates_.size(); i++) {
+        size += com.google.protobuf.CodedOutputStream
+          .computeMessageSize(3, multiSourceUpdates_.get(i));
+      }
       size += getUnknownFields().getSerializedSize();
       memoizedSerializedSize = size;
       return size;
@@ -2839,6 +3220,7 @@ public final class UFXProtocol {
       private void maybeForceBuilderInitialization() {
         if (com.google.protobuf.GeneratedMessage.alwaysUseFieldBuilders) {
           getUpdatesFieldBuilder();
+          getMultiSourceUpdatesFieldBuilder();
         }
       }
       private static Builder create() {
@@ -2855,6 +3237,12 @@ public final class UFXProtocol {
         } else {
           updatesBuilder_.clear();
         }
+        if (multiSourceUpdatesBuilder_ == null) {
+          multiSourceUpdates_ = java.util.Collections.emptyList();
+          bitField0_ = (bitField0_ & ~0x00000004);
+        } else {
+          multiSourceUpdatesBuilder_.clear();
+        }
         return this;
       }
 
@@ -2896,6 +3284,15 @@ public final class UFXProtocol {
         } else {
           result.updates_ = updatesBuilder_.build();
         }
+        if (multiSourceUpdatesBuilder_ == null) {
+          if (((bitField0_ & 0x00000004) == 0x00000004)) {
+            multiSourceUpdates_ = java.util.Collections.unmodifiableList(multiSourceUpdates_);
+            bitField0_ = (bitField0_ & ~0x00000004);
+          }
+          result.multiSourceUpdates_ = multiSourceUpdates_;
+        } else {
+          result.multiSourceUpdates_ = multiSourceUpdatesBuilder_.build();
+        }
         result.bitField0_ = to_bitField0_;
         onBuilt();
         return result;
@@ -2941,6 +3338,32 @@ public final class UFXProtocol {
             }
           }
         }
+        if (multiSourceUpdatesBuilder_ == null) {
+          if (!other.multiSourceUpdates_.isEmpty()) {
+            if (multiSourceUpdates_.isEmpty()) {
+              multiSourceUpdates_ = other.multiSourceUpdates_;
+              bitField0_ = (bitField0_ & ~0x00000004);
+            } else {
+              ensureMultiSourceUpdatesIsMutable();
+              multiSourceUpdates_.addAll(other.multiSourceUpdates_);
+            }
+            onChanged();
+          }
+        } else {
+          if (!other.multiSourceUpdates_.isEmpty()) {
+            if (multiSourceUpdatesBuilder_.isEmpty()) {
+              multiSourceUpdatesBuilder_.dispose();
+              multiSourceUpdatesBuilder_ = null;
+              multiSourceUpdates_ = other.multiSourceUpdates_;
+              bitField0_ = (bitField0_ & ~0x00000004);
+              multiSourceUpdatesBuilder_ = 
+                com.google.protobuf.GeneratedMessage.alwaysUseFieldBuilders ?
+                   getMultiSourceUpdatesFieldBuilder() : null;
+            } else {
+              multiSourceUpdatesBuilder_.addAllMessages(other.multiSourceUpdates_);
+            }
+          }
+        }
         this.mergeUnknownFields(other.getUnknownFields());
         return this;
       }
@@ -2956,6 +3379,12 @@ public final class UFXProtocol {
             return false;
           }
         }
+        for (int i = 0; i < getMultiSourceUpdatesCount(); i++) {
+          if (!getMultiSourceUpdates(i).isInitialized()) {
+            
+            return false;
+          }
+        }
         return true;
       }
 
@@ -3275,6 +3704,354 @@ public final class UFXProtocol {
         return updatesBuilder_;
       }
 
+      // repeated .com.vinumeris.updatefx.Update multi_source_updates = 3;
+      private java.util.List<com.vinumeris.updatefx.UFXProtocol.Update> multiSourceUpdates_ =
+        java.util.Collections.emptyList();
+      private void ensureMultiSourceUpdatesIsMutable() {
+        if (!((bitField0_ & 0x00000004) == 0x00000004)) {
+          multiSourceUpdates_ = new java.util.ArrayList<com.vinumeris.updatefx.UFXProtocol.Update>(multiSourceUpdates_);
+          bitField0_ |= 0x00000004;
+         }
+      }
+
+      private com.google.protobuf.RepeatedFieldBuilder<
+          com.vinumeris.updatefx.UFXProtocol.Update, com.vinumeris.updatefx.UFXProtocol.Update.Builder, com.vinumeris.updatefx.UFXProtocol.UpdateOrBuilder> multiSourceUpdatesBuilder_;
+
+      /**
+       * <code>repeated .com.vinumeris.updatefx.Update multi_source_updates = 3;</code>
+       *
+       * <pre>
+       * Alternatives to entries in updates, with the same version, that patch against several earlier versions at
+       * once (see Update.source_versions) and so can reuse files that reappear from older releases. A client only uses
+       * one if it has all of the sources, otherwise it falls back to the entry in updates, as older clients always do.
+       * </pre>
+       */
+      public java.util.List<com.vinumeris.updatefx.UFXProtocol.Update> getMultiSourceUpdatesList() {
+        if (multiSourceUpdatesBuilder_ == null) {
+          return java.util.Collections.unmodifiableList(multiSourceUpdates_);
+        } else {
+          return multiSourceUpdatesBuilder_.getMessageList();
+        }
+      }
+      /**
+       * <code>repeated .com.vinumeris.updatefx.Update multi_source_updates = 3;</code>
+       *
+       * <pre>
+       * Alternatives to entries in updates, with the same version, that patch against several earlier versions at
+       * once (see Update.source_versions) and so can reuse files that reappear from older releases. A client only uses
+       * one if it has all of the sources, otherwise it falls back to the entry in updates, as older clients always do.
+       * </pre>
+       */
+      public int getMultiSourceUpdatesCount() {
+        if (multiSourceUpdatesBuilder_ == null) {
+          return multiSourceUpdates_.size();
+        } else {
+          return multiSourceUpdatesBuilder_.getCount();
+        }
+      }
+      /**
+       * <code>repeated .com.vinumeris.updatefx.Update multi_source_updates = 3;</code>
+       *
+       * <pre>
+       * Alternatives to entries in updates, with the same version, that patch against several earlier versions at
+       * once (see Update.source_versions) and so can reuse files that reappear from older releases. A client only uses
+       * one if it has all of the sources, otherwise it falls back to the entry in updates, as older clients always do.
+       * </pre>
+       */
+      public com.vinumeris.updatefx.UFXProtocol.Update getMultiSourceUpdates(int index) {
+        if (multiSourceUpdatesBuilder_ == null) {
+          return multiSourceUpdates_.get(index);
+        } else {
+          return multiSourceUpdatesBuilder_.getMessage(index);
+        }
+      }
+      /**
+       * <code>repeated .com.vinumeris.updatefx.Update multi_source_updates = 3;</code>
+       *
+       * <pre>
+       * Alternatives to entries in updates, with the same version, that patch against several earlier versions at
+       * once (see Update.source_versions) and so can reuse files that reappear from older releases. A client only uses
+       * one if it has all of the sources, otherwise it falls back to the entry in updates, as older clients always do.
+       * </pre>
+       */
+      public Builder setMultiSourceUpdates(
+          int index, com.vinumeris.updatefx.UFXProtocol.Update value) {
+        if (multiSourceUpdatesBuilder_ == null) {
+          if (value == null) {
+            throw new NullPointerException();
+          }
+          ensureMultiSourceUpdatesIsMutable();
+          multiSourceUpdates_.set(index, value);
+          onChanged();
+        } else {
+          multiSourceUpdatesBuilder_.setMessage(index, value);
+        }
+        return this;
+      }
+      /**
+       * <code>repeated .com.vinumeris.updatefx.Update multi_source_updates = 3;</code>
+       *
+       * <pre>
+       * Alternatives to entries in updates, with the same version, that patch against several earlier versions at
+       * once (see Update.source_versions) and so can reuse files that reappear from older releases. A client only uses
+       * one if it has all of the sources, otherwise it falls back to the entry in updates, as older clients always do.
+       * </pre>
+       */
+      public Builder setMultiSourceUpdates(
+          int index, com.vinumeris.updatefx.UFXProtocol.Update.Builder builderForValue) {
+        if (multiSourceUpdatesBuilder_ == null) {
+          ensureMultiSourceUpdatesIsMutable();
+          multiSourceUpdates_.set(index, builderForValue.build());
+          onChanged();
+        } else {
+          multiSourceUpdatesBuilder_.setMessage(index, builderForValue.build());
+        }
+        return this;
+      }
+      /**
+       * <code>repeated .com.vinumeris.updatefx.Update multi_source_updates = 3;</code>
+       *
+       * <pre>
+       * Alternatives to entries in updates, with the same version, that patch against several earlier versions at
+       * once (see Update.source_versions) and so can reuse files that reappear from older releases. A client only uses
+       * one if it has all of the sources, otherwise it falls back to the entry in updates, as older clients always do.
+       * </pre>
+       */
+      public Builder addMultiSourceUpdates(com.vinumeris.updatefx.UFXProtocol.Update value) {
+        if (multiSourceUpdatesBuilder_ == null) {
+          if (value == null) {
+            throw new NullPointerException();
+          }
+          ensureMultiSourceUpdatesIsMutable();
+          multiSourceUpdates_.add(value);
+          onChanged();
+        } else {
+          multiSourceUpdatesBuilder_.addMessage(value);
+        }
+        return this;
+      }
+      /**
+       * <code>repeated .com.vinumeris.updatefx.Update multi_source_updates = 3;</code>
+       *
+       * <pre>
+       * Alternatives to entries in updates, with the same version, that patch against several earlier versions at
+       * once (see Update.source_versions) and so can reuse files that reappear from older releases. A client only uses
+       * one if it has all of the sources, otherwise it falls back to the entry in updates, as older clients always do.
+       * </pre>
+       */
+      public Builder addMultiSourceUpdates(
+          int index, com.vinumeris.updatefx.UFXProtocol.Update value) {
+        if (multiSourceUpdatesBuilder_ == null) {
+          if (value == null) {
+            throw new NullPointerException();
+          }
+          ensureMultiSourceUpdatesIsMutable();
+          multiSourceUpdates_.add(index, value);
+          onChanged();
+        } else {
+          multiSourceUpdatesBuilder_.addMessage(index, value);
+        }
+        return this;
+      }
+      /**
+       * <code>repeated .com.vinumeris.updatefx.Update multi_source_updates = 3;</code>
+       *
+       * <pre>
+       * Alternatives to entries in updates, with the same version, that patch against several earlier versions at
+       * once (see Update.source_versions) and so can reuse files that reappear from older releases. A client only uses
+       * one if it has all of the sources, otherwise it falls back to the entry in updates, as older clients always do.
+       * </pre>
+       */
+      public Builder addMultiSourceUpdates(
+          com.vinumeris.updatefx.UFXProtocol.Update.Builder builderForValue) {
+        if (multiSourceUpdatesBuilder_ == null) {
+          ensureMultiSourceUpdatesIsMutable();
+          multiSourceUpdates_.add(builderForValue.build());
+          onChanged();
+        } else {
+          multiSourceUpdatesBuilder_.addMessage(builderForValue.build());
+        }
+        return this;
+      }
+      /**
+       * <code>repeated .com.vinumeris.updatefx.Update multi_source_updates = 3;</code>
+       *
+       * <pre>
+       * Alternatives to entries in updates, with the same version, that patch against several earlier versions at
+       * once (see Update.source_versions) and so can reuse files that reappear from older releases. A client only uses
+       * one if it has all of the sources, otherwise it falls back to the entry in updates, as older clients always do.
+       * </pre>
+       */
+      public Builder addMultiSourceUpdates(
+          int index, com.vinumeris.updatefx.UFXProtocol.Update.Builder builderForValue) {
+        if (multiSourceUpdatesBuilder_ == null) {
+          ensureMultiSourceUpdatesIsMutable();
+          multiSourceUpdates_.add(index, builderForValue.build());
+          onChanged();
+        } else {
+          multiSourceUpdatesBuilder_.addMessage(index, builderForValue.build());
+        }
+        return this;
+      }
+      /**
+       * <code>repeated .com.vinumeris.updatefx.Update multi_source_updates = 3;</code>
+       *
+       * <pre>
+       * Alternatives to entries in updates, with the same version, that patch against several earlier versions at
+       * once (see Update.source_versions) and so can reuse files that reappear from older releases. A client only uses
+       * one if it has all of the sources, otherwise it falls back to the entry in updates, as older clients always do.
+       * </pre>
+       */
+      public Builder addAllMultiSourceUpdates(
+          java.lang.Iterable<? extends com.vinumeris.updatefx.UFXProtocol.Update> values) {
+        if (multiSourceUpdatesBuilder_ == null) {
+          ensureMultiSourceUpdatesIsMutable();
+          super.addAll(values, multiSourceUpdates_);
+          onChanged();
+        } else {
+          multiSourceUpdatesBuilder_.addAllMessages(values);
+        }
+        return this;
+      }
+      /**
+       * <code>repeated .com.vinumeris.updatefx.Update multi_source_updates = 3;</code>
+       *
+       * <pre>
+       * Alternatives to entries in updates, with the same version, that patch against several earlier versions at
+       * once (see Update.source_versions) and so can reuse files that reappear from older releases. A client only uses
+       * one if it has all of the sources, otherwise it falls back to the entry in updates, as older clients always do.
+       * </pre>
+       */
+      public Builder clearMultiSourceUpdates() {
+        if (multiSourceUpdatesBuilder_ == null) {
+          multiSourceUpdates_ = java.util.Collections.emptyList();
+          bitField0_ = (bitField0_ & ~0x00000004);
+          onChanged();
+        } else {
+          multiSourceUpdatesBuilder_.clear();
+        }
+        return this;
+      }
+      /**
+       * <code>repeated .com.vinumeris.updatefx.Update multi_source_updates = 3;</code>
+       *
+       * <pre>
+       * Alternatives to entries in updates, with the same version, that patch against several earlier versions at
+       * once (see Update.source_versions) and so can reuse files that reappear from older releases. A client only uses
+       * one if it has all of the sources, otherwise it falls back to the entry in updates, as older clients always do.
+       * </pre>
+       */
+      public Builder removeMultiSourceUpdates(int index) {
+        if (multiSourceUpdatesBuilder_ == null) {
+          ensureMultiSourceUpdatesIsMutable();
+          multiSourceUpdates_.remove(index);
+          onChanged();
+        } else {
+          multiSourceUpdatesBuilder_.remove(index);
+        }
+        return this;
+      }
+      /**
+       * <code>repeated .com.vinumeris.updatefx.Update multi_source_updates = 3;</code>
+       *
+       * <pre>
+       * Alternatives to entries in updates, with the same version, that patch against several earlier versions at
+       * once (see Update.source_versions) and so can reuse files that reappear from older releases. A client only uses
+       * one if it has all of the sources, otherwise it falls back to the entry in updates, as older clients always do.
+       * </pre>
+       */
+      public com.vinumeris.updatefx.UFXProtocol.Update.Builder getMultiSourceUpdatesBuilder(
+          int index) {
+        return getMultiSourceUpdatesFieldBuilder().getBuilder(index);
+      }
+      /**
+       * <code>repeated .com.vinumeris.updatefx.Update multi_source_updates = 3;</code>
+       *
+       * <pre>
+       * Alternatives to entries in updates, with the same version, that patch against several earlier versions at
+       * once (see Update.source_versions) and so can reuse files that reappear from older releases. A client only uses
+       * one if it has all of the sources, otherwise it falls back to the entry in updates, as older clients always do.
+       * </pre>
+       */
+      public com.vinumeris.updatefx.UFXProtocol.UpdateOrBuilder getMultiSourceUpdatesOrBuilder(
+          int index) {
+        if (multiSourceUpdatesBuilder_ == null) {
+          return multiSourceUpdates_.get(index);  } else {
+          return multiSourceUpdatesBuilder_.getMessageOrBuilder(index);
+        }
+      }
+      /**
+       * <code>repeated .com.vinumeris.updatefx.Update multi_source_updates = 3;</code>
+       *
+       * <pre>
+       * Alternatives to entries in updates, with the same version, that patch against several earlier versions at
+       * once (see Update.source_versions) and so can reuse files that reappear from older releases. A client only uses
+       * one if it has all of the sources, otherwise it falls back to the entry in updates, as older clients always do.
+       * </pre>
+       */
+      public java.util.List<? extends com.vinumeris.updatefx.UFXProtocol.UpdateOrBuilder> 
+           getMultiSourceUpdatesOrBuilderList() {
+        if (multiSourceUpdatesBuilder_ != null) {
+          return multiSourceUpdatesBuilder_.getMessageOrBuilderList();
+        } else {
+          return java.util.Collections.unmodifiableList(multiSourceUpdates_);
+        }
+      }
+      /**
+       * <code>repeated .com.vinumeris.updatefx.Update multi_source_updates = 3;</code>
+       *
+       * <pre>
+       * Alternatives to entries in updates, with the same version, that patch against several earlier versions at
+       * once (see Update.source_versions) and so can reuse files that reappear from older releases. A client only uses
+       * one if it has all of the sources, otherwise it falls back to the entry in updates, as older clients always do.
+       * </pre>
+       */
+      public com.vinumeris.updatefx.UFXProtocol.Update.Builder addMultiSourceUpdatesBuilder() {
+        return getMultiSourceUpdatesFieldBuilder().addBuilder(
+            com.vinumeris.updatefx.UFXProtocol.Update.getDefaultInstance());
+      }
+      /**
+       * <code>repeated .com.vinumeris.updatefx.Update multi_source_updates = 3;</code>
+       *
+       * <pre>
+       * Alternatives to entries in updates, with the same version, that patch against several earlier versions at
+       * once (see Update.source_versions) and so can reuse files that reappear from older releases. A client only uses
+       * one if it has all of the sources, otherwise it falls back to the entry in updates, as older clients always do.
+       * </pre>
+       */
+      public com.vinumeris.updatefx.UFXProtocol.Update.Builder addMultiSourceUpdatesBuilder(
+          int index) {
+        return getMultiSourceUpdatesFieldBuilder().addBuilder(
+            index, com.vinumeris.updatefx.UFXProtocol.Update.getDefaultInstance());
+      }
+      /**
+       * <code>repeated .com.vinumeris.updatefx.Update multi_source_updates = 3;</code>
+       *
+       * <pre>
+       * Alternatives to entries in updates, with the same version, that patch against several earlier versions at
+       * once (see Update.source_versions) and so can reuse files that reappear from older releases. A client only uses
+       * one if it has all of the sources, otherwise it falls back to the entry in updates, as older clients always do.
+       * </pre>
+       */
+      public java.util.List<com.vinumeris.updatefx.UFXProtocol.Update.Builder> 
+           getMultiSourceUpdatesBuilderList() {
+        return getMultiSourceUpdatesFieldBuilder().getBuilderList();
+      }
+      private com.google.protobuf.RepeatedFieldBuilder<
+          com.vinumeris.updatefx.UFXProtocol.Update, com.vinumeris.updatefx.UFXProtocol.Update.Builder, com.vinumeris.updatefx.UFXProtocol.UpdateOrBuilder> 
+          getMultiSourceUpdatesFieldBuilder() {
+        if (multiSourceUpdatesBuilder_ == null) {
+          multiSourceUpdatesBuilder_ = new com.google.protobuf.RepeatedFieldBuilder<
+              com.vinumeris.updatefx.UFXProtocol.Update, com.vinumeris.updatefx.UFXProtocol.Update.Builder, com.vinumeris.updatefx.UFXProtocol.UpdateOrBuilder>(
+                  multiSourceUpdates_,
+                  ((bitField0_ & 0x00000004) == 0x00000004),
+                  getParentForChildren(),
+                  isClean());
+          multiSourceUpdates_ = null;
+        }
+        return multiSourceUpdatesBuilder_;
+      }
+
       // @@protoc_insertion_point(builder_scope:com.vinumeris.updatefx.Updates)
     }
 
@@ -4044,16 +4821,18 @@ public final class UFXProtocol {
       "\n\016updatefx.proto\022\026com.vinumeris.updatefx" +
       "\"U\n\021UpdateDescription\022\021\n\tone_liner\030\001 \002(\t" +
       "\022\023\n\013description\030\002 \001(\t\022\030\n\tlang_code\030\003 \001(\t" +
-      ":\005en_US\"\305\001\n\006Update\022\014\n\004urls\030\001 \003(\t\022\022\n\npatc" +
+      ":\005en_US\"\336\001\n\006Update\022\014\n\004urls\030\001 \003(\t\022\022\n\npatc" +
       "h_hash\030\002 \002(\014\022\020\n\010pre_hash\030\003 \002(\014\022\021\n\tpost_h" +
       "ash\030\004 \002(\014\022\017\n\007version\030\005 \002(\r\022\022\n\npatch_size" +
       "\030\006 \002(\004\022\017\n\007gzipped\030\007 \001(\010\022>\n\013description\030\010" +
       " \003(\0132).com.vinumeris.updatefx.UpdateDesc" +
-      "ription\"K\n\007Updates\022\017\n\007version\030\001 \002(\005\022/\n\007u" +
-      "pdates\030\002 \003(\0132\036.com.vinumeris.updatefx.Up",
-      "date\"4\n\rSignedUpdates\022\017\n\007updates\030\002 \002(\014\022\022" +
-      "\n\nsignatures\030\003 \003(\tB%\n\026com.vinumeris.upda" +
-      "tefxB\013UFXProtocol"
+      "ription\022\027\n\017source_versions\030\t \003(\r\"\211\001\n\007Upd" +
+      "ates\022\017\n\007version\030\001 \002(\005\022/\n\007updates\030\002 \003(\0132\036",
+      ".com.vinumeris.updatefx.Update\022<\n\024multi_" +
+      "source_updates\030\003 \003(\0132\036.com.vinumeris.upd" +
+      "atefx.Update\"4\n\rSignedUpdates\022\017\n\007updates" +
+      "\030\002 \002(\014\022\022\n\nsignatures\030\003 \003(\tB%\n\026com.vinume" +
+      "ris.updatefxB\013UFXProtocol"
     };
     com.google.protobuf.Descriptors.FileDescriptor.InternalDescriptorAssigner assigner =
       new com.google.protobuf.Descriptors.FileDescriptor.InternalDescriptorAssigner() {
@@ -4071,13 +4850,13 @@ public final class UFXProtocol {
           internal_static_com_vinumeris_updatefx_Update_fieldAccessorTable = new
             com.google.protobuf.GeneratedMessage.FieldAccessorTable(
               internal_static_com_vinumeris_updatefx_Update_descriptor,
-              new java.lang.String[] { "Urls", "PatchHash", "PreHash", "PostHash", "Version", "PatchSize", "Gzipped", "Description", });
+              new java.lang.String[] { "Urls", "PatchHash", "PreHash", "PostHash", "Version", "PatchSize", "Gzipped", "Description", "SourceVersions", });
           internal_static_com_vinumeris_updatefx_Updates_descriptor =
             getDescriptor().getMessageTypes().get(2);
           internal_static_com_vinumeris_updatefx_Updates_fieldAccessorTable = new
             com.google.protobuf.GeneratedMessage.FieldAccessorTable(
               internal_static_com_vinumeris_updatefx_Updates_descriptor,
-              new java.lang.String[] { "Version", "Updates", });
+              new java.lang.String[] { "Version", "Updates", "MultiSourceUpdates", });
           internal_static_com_vinumeris_updatefx_SignedUpdates_descriptor =
             getDescriptor().getMessageTypes().get(3);
           internal_static_com_vinumeris_updatefx_SignedUpdates_fieldAccessorTable = new
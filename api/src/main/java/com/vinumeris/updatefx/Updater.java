@@ -1,12 +1,19 @@
 package com.vinumeris.updatefx;
 
+import com.google.common.base.Throwables;
 import com.google.common.hash.Hashing;
 import com.google.common.hash.HashingOutputStream;
 import com.google.common.io.BaseEncoding;
 import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingInputStream;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.protobuf.InvalidProtocolBufferException;
+import com.nothome.delta.ConcatSeekableSource;
+import com.nothome.delta.GDiffComposer;
 import com.nothome.delta.GDiffPatcher;
-import com.nothome.delta.RandomAccessFileSeekableSource;
+import com.nothome.delta.MappedFileSeekableSource;
+import com.nothome.delta.ParallelGDiffPatcher;
+import com.nothome.delta.SeekableSource;
 import javafx.concurrent.Task;
 import org.bouncycastle.math.ec.ECPoint;
 import org.slf4j.Logger;
@@ -15,16 +22,29 @@ import org.slf4j.LoggerFactory;
 import java.io.*;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.net.HttpURLConnection;
 import java.net.URLConnection;
 import java.nio.file.Files;
+import java.nio.file.OpenOption;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.security.SignatureException;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.GZIPInputStream;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
 import static com.vinumeris.updatefx.Utils.sha256;
 import static java.nio.file.Files.*;
+import static java.nio.file.StandardOpenOption.*;
 
 /**
  * An updater does all the work of downloading, checking and applying updates on a background thread. It has
@@ -33,6 +53,9 @@ import static java.nio.file.Files.*;
 public class Updater extends Task<UpdateSummary> {
     private static final Logger log = LoggerFactory.getLogger(Updater.class);
 
+    /** How many patches are downloaded at once, unless changed with {@link #setDownloadParallelism(int)}. */
+    public static final int DEFAULT_DOWNLOAD_PARALLELISM = 4;
+
     private final URI indexURL;
     private final String userAgent;
     private int highestLocalVersion;
@@ -42,8 +65,13 @@ public class Updater extends Task<UpdateSummary> {
     private final int requiredSigningThreshold;
 
     private long totalBytesDownloaded;
+    private final Map<Integer, Long> bytesDownloaded = new HashMap<>();
+    private MirrorStats mirrorStats;
     private int newHighestVersion;
     private boolean overrideURLs = false;
+    private int downloadParallelism = DEFAULT_DOWNLOAD_PARALLELISM;
+    private boolean composePatches = false;
+    private int patchParallelism = 1;
 
     /**
      * Constructs a new class that when call()ed, will do an update check, download any new update deltas and apply
@@ -76,6 +104,36 @@ public class Updater extends Task<UpdateSummary> {
         this.overrideURLs = overrideURLs;
     }
 
+    /**
+     * Sets how many patches may be downloaded at once when the app is several versions behind. Patches are still
+     * applied strictly in order, each one as soon as it has arrived, so applying overlaps with the remaining downloads.
+     * Defaults to {@link #DEFAULT_DOWNLOAD_PARALLELISM}.
+     */
+    public void setDownloadParallelism(int downloadParallelism) {
+        checkArgument(downloadParallelism > 0);
+        this.downloadParallelism = downloadParallelism;
+    }
+
+    /**
+     * If true, when the app is more than one version behind the patches are merged and applied in one go, so only the
+     * newest jar is written rather than every version in between. The versions skipped over are not kept, so the app
+     * can't be pinned to them, and later multi source patches that need them won't be used. Off by default.
+     */
+    public void setComposePatches(boolean composePatches) {
+        this.composePatches = composePatches;
+    }
+
+    /**
+     * Sets how many threads may apply a single patch. Only patches that were calculated with an index (see
+     * {@link DeltaCalculator.Options#indexInterval}) and aren't gzipped can be split up, others are applied on one
+     * thread as before. If more than one, the first patch is downloaded in full before it's applied, rather than being
+     * applied as it arrives, as the parts are read out of order. Defaults to 1.
+     */
+    public void setPatchParallelism(int patchParallelism) {
+        checkArgument(patchParallelism > 0);
+        this.patchParallelism = patchParallelism;
+    }
+
     @Override
     protected UpdateSummary call() throws Exception {
         highestLocalVersion = UpdateFX.extractVerFromFilename(UpdateFX.findBestJar(pathToOrigJar, localUpdatesDir));
@@ -93,116 +151,514 @@ public class Updater extends Task<UpdateSummary> {
     }
 
     private URLConnection openURL(URI url) throws IOException {
+        return openURL(url, 0);
+    }
+
+    private URLConnection openURL(URI url, long offset) throws IOException {
         URLConnection connection = url.toURL().openConnection();
         connection.setDoOutput(true);
         connection.setConnectTimeout(10 * 1000);
         connection.addRequestProperty("User-Agent", userAgent);
+        if (offset > 0)
+            connection.addRequestProperty("Range", "bytes=" + offset + "-");
         connection.connect();
         return connection;
     }
 
-    private UFXProtocol.Updates processSignedIndex(UFXProtocol.SignedUpdates signedUpdates) throws IOException, URISyntaxException, Ex, SignatureException {
+    private UFXProtocol.Updates processSignedIndex(UFXProtocol.SignedUpdates signedUpdates) throws IOException, URISyntaxException, Ex, SignatureException, InterruptedException {
         UFXProtocol.Updates updates = validateSignatures(signedUpdates);
         if (updates.getVersion() != 1)
             throw new Ex.UnknownIndexVersion();
         LinkedList<UFXProtocol.Update> applicableUpdates = new LinkedList<>();
+        // Where a multi source patch is used, the normal one to fall back to if it doesn't work out.
+        Map<Integer, UFXProtocol.Update> fallbacks = new HashMap<>();
+        Set<Integer> available = localVersions();
         long bytesToFetch = 0;
         for (UFXProtocol.Update update : updates.getUpdatesList()) {
             if (update.getVersion() > highestLocalVersion) {
-                applicableUpdates.add(update);
-                bytesToFetch += update.getPatchSize();
+                UFXProtocol.Update chosen = findMultiSourceUpdate(updates, update.getVersion(), available);
+                if (chosen != null)
+                    fallbacks.put(update.getVersion(), update);
+                else
+                    chosen = update;
+                applicableUpdates.add(chosen);
+                bytesToFetch += chosen.getPatchSize();
+                // By the time later updates are applied, this one will be on disk too.
+                available.add(update.getVersion());
             }
         }
         if (applicableUpdates.isEmpty()) {
             log.info("No updates found: we're fresh!");
         } else {
             log.info("Found {} applicable updates totalling {} bytes", applicableUpdates.size(), bytesToFetch);
-            List<Path> downloadedUpdates = downloadUpdates(applicableUpdates, bytesToFetch);
-            processDownloadedUpdates(applicableUpdates, downloadedUpdates);
+            downloadAndApplyUpdates(applicableUpdates, fallbacks, bytesToFetch);
         }
         return updates;
     }
 
-    private List<Path> downloadUpdates(LinkedList<UFXProtocol.Update> updates, long bytesToFetch) throws URISyntaxException, IOException, Ex {
-        LinkedList<Path> files = new LinkedList<>();
-        if (updates.isEmpty()) return files;
+    /** Returns the versions of the jars already on disk that patches can be applied to. */
+    private Set<Integer> localVersions() throws IOException {
+        Set<Integer> versions = new HashSet<>();
+        versions.add(UpdateFX.extractVerFromFilename(pathToOrigJar));
+        if (isDirectory(localUpdatesDir)) {
+            for (Path path : Utils.listDir(localUpdatesDir)) {
+                int version = UpdateFX.extractVerFromFilename(path);
+                if (version > -1)
+                    versions.add(version);
+            }
+        }
+        return versions;
+    }
+
+    /** Returns the multi source alternative for the given version, if there is one and we have all of its sources. */
+    private static UFXProtocol.Update findMultiSourceUpdate(UFXProtocol.Updates updates, int version, Set<Integer> available) {
+        for (UFXProtocol.Update update : updates.getMultiSourceUpdatesList()) {
+            if (update.getVersion() != version || update.getSourceVersionsCount() == 0)
+                continue;
+            if (update.getSourceVersions(0) != version - 1)
+                continue;
+            if (available.containsAll(update.getSourceVersionsList()))
+                return update;
+        }
+        return null;
+    }
+
+    private void downloadAndApplyUpdates(List<UFXProtocol.Update> updates, Map<Integer, UFXProtocol.Update> fallbacks,
+                                         long bytesToFetch) throws URISyntaxException, IOException, Ex, InterruptedException {
+        // Patches are fetched on a small pool of threads, whilst this thread applies each one in order as soon as it
+        // has arrived. So patch N is being applied whilst N+1 and onwards are still downloading. The first patch applies
+        // to jars we already have, so it's applied as it arrives instead of being saved first, unless an earlier run
+        // left part of it on disk and resuming that is cheaper.
         updateProgress(0, bytesToFetch);
-        for (UFXProtocol.Update update : updates) {
-            if (update.getUrlsCount() == 0)
-                throw new IllegalStateException("Bad update definition: no URLs");
-            URI url = new URI(update.getUrls((int) (update.getUrlsCount() * Math.random())));
-            url = maybeOverrideBaseURL(url);
-            log.info("Downloading update from {}", url);
-            URLConnection connection = openURL(url);
-            long size = connection.getContentLengthLong();
-            long initialBytesRead = totalBytesDownloaded;
-            try (InputStream netStream = connection.getInputStream()) {
-                BufferedInputStream bufStream = new BufferedInputStream(netStream);
-                ProgressCalculatingStream stream = new ProgressCalculatingStream(bufStream, size) {
-                    @Override
-                    protected void updateProgress(long readSoFar, long expectedBytes, double progress) {
-                        log.info(String.format("Download progress: %.2f%%", progress  * 100));
-                        totalBytesDownloaded = initialBytesRead + readSoFar;
-                        // Marshal to UI thread.
-                        Updater.this.updateProgress(totalBytesDownloaded, bytesToFetch);
-                    }
-                };
-                Path tmpDir = localUpdatesDir.resolve("tmp");
-                if (!isDirectory(tmpDir))
-                    createDirectory(tmpDir);
-                Path outfile = tmpDir.resolve(update.getVersion() + ".jar.bpatch");
-                deleteIfExists(outfile);
-                log.info(" ... saving to {}", outfile);
-                byte[] sha256;
-                try (HashingOutputStream savedFile = hashingFileStream(outfile)) {
-                    ByteStreams.copy(stream, savedFile);
-                    sha256 = savedFile.hash().asBytes();
+        Path tmpDir = tmpDir();
+        createDirectories(tmpDir);
+        mirrorStats = MirrorStats.load(localUpdatesDir);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(downloadParallelism, updates.size()),
+                new ThreadFactoryBuilder().setNameFormat("UpdateFX download %d").setDaemon(true).build());
+        try {
+            // Multi source patches need the jars in between, so then every version is written out.
+            if (composePatches && updates.size() > 1 && fallbacks.isEmpty()) {
+                composeAndApplyUpdates(updates, executor, tmpDir, bytesToFetch);
+                return;
+            }
+            boolean streamFirst = !exists(patchFile(updates.get(0), tmpDir)) && isRegularFile(baseJar(updates.get(0))) &&
+                    (patchParallelism == 1 || updates.get(0).getGzipped());
+            List<Future<Path>> downloads = new ArrayList<>();
+            for (UFXProtocol.Update update : updates) {
+                if (downloads.isEmpty() && streamFirst)
+                    downloads.add(null);
+                else
+                    downloads.add(executor.submit(() -> downloadUpdate(update, tmpDir, bytesToFetch)));
+            }
+            for (int i = 0; i < updates.size(); i++) {
+                UFXProtocol.Update update = updates.get(i);
+                UFXProtocol.Update fallback = fallbacks.get(update.getVersion());
+                try {
+                    if (downloads.get(i) == null)
+                        streamUpdate(update, tmpDir, bytesToFetch);
+                    else
+                        applyUpdate(update, await(downloads.get(i)));
+                } catch (Ex.BadUpdateHash e) {
+                    if (fallback == null)
+                        throw e;
+                    // One of the older jars may have been changed or damaged since we wrote it.
+                    log.warn("Multi source patch for version {} did not apply, using the normal patch instead", update.getVersion());
+                    applyUpdate(fallback, downloadUpdate(fallback, tmpDir, bytesToFetch));
                 }
-                if (Arrays.equals(update.getPatchHash().toByteArray(), sha256)) {
-                    files.add(outfile);
-                } else {
-                    log.error("Downloaded file did not match signed index hash: {} vs {}",
-                            BaseEncoding.base16().lowerCase().encode(sha256),
-                            BaseEncoding.base16().lowerCase().encode(update.getPatchHash().toByteArray()));
-                    throw new Ex.BadUpdateHash();
+            }
+        } finally {
+            // If something went wrong, don't leave the other downloads running in the background.
+            executor.shutdownNow();
+            try {
+                mirrorStats.save();
+            } catch (IOException e) {
+                log.warn("Could not save mirror stats", e);
+            }
+        }
+    }
+
+    private void composeAndApplyUpdates(List<UFXProtocol.Update> updates, ExecutorService executor, Path tmpDir,
+                                        long bytesToFetch) throws URISyntaxException, IOException, Ex, InterruptedException {
+        List<Future<Path>> downloads = new ArrayList<>();
+        for (UFXProtocol.Update update : updates)
+            downloads.add(executor.submit(() -> downloadUpdate(update, tmpDir, bytesToFetch)));
+        // Each patch is merged in as soon as it has arrived. Only the hash of the last jar is checked, but every
+        // patch was checked against the signed index, so the chain in between is what the index says it is.
+        GDiffComposer composer = new GDiffComposer();
+        for (int i = 0; i < updates.size(); i++) {
+            try (InputStream patchStream = openPatch(await(downloads.get(i)), updates.get(i).getGzipped())) {
+                composer.add(patchStream);
+            }
+        }
+        UFXProtocol.Update last = updates.get(updates.size() - 1);
+        List<File> sources = patchSources(updates.get(0));
+        log.info("Applying {} patches to {} in one go", updates.size(), sources);
+        Path newJar = tmpDir.resolve(last.getVersion() + ".jar");
+        byte[] postHash;
+        try (SeekableSource baseSource = openSources(sources);
+             HashingOutputStream nextStream = hashingFileStream(newJar)) {
+            composer.patch(baseSource, nextStream);
+            postHash = nextStream.hash().asBytes();
+        }
+        installUpdate(last, newJar, postHash);
+    }
+
+    private Path tmpDir() {
+        return localUpdatesDir.resolve("tmp");
+    }
+
+    private static Path patchFile(UFXProtocol.Update update, Path tmpDir) {
+        return tmpDir.resolve(update.getVersion() + (update.getSourceVersionsCount() > 0 ? ".jar.multi.bpatch" : ".jar.bpatch"));
+    }
+
+    private List<URI> mirrorURLs(UFXProtocol.Update update) throws URISyntaxException {
+        if (update.getUrlsCount() == 0)
+            throw new IllegalStateException("Bad update definition: no URLs");
+        List<URI> urls = new ArrayList<>();
+        for (String url : update.getUrlsList())
+            urls.add(maybeOverrideBaseURL(new URI(url)));
+        return mirrorStats.rank(urls);
+    }
+
+    private Path downloadUpdate(UFXProtocol.Update update, Path tmpDir, long bytesToFetch) throws URISyntaxException, IOException, Ex {
+        return downloadUpdate(update, tmpDir, bytesToFetch, mirrorURLs(update));
+    }
+
+    private Path downloadUpdate(UFXProtocol.Update update, Path tmpDir, long bytesToFetch, List<URI> urls) throws IOException, Ex {
+        Path outfile = patchFile(update, tmpDir);
+        // Try the mirrors best first. Whatever a failed mirror managed to send stays on disk, so the next one only
+        // has to provide the rest. A mirror that sent a patch not matching the index counts as failed too.
+        Exception lastError = null;
+        for (URI url : urls) {
+            try {
+                return downloadUpdate(update, url, outfile, bytesToFetch);
+            } catch (IOException | Ex.BadUpdateHash e) {
+                log.warn("Download of update {} from {} failed: {}", update.getVersion(), url, e.toString());
+                mirrorStats.recordFailure(url);
+                lastError = e;
+            }
+        }
+        Throwables.propagateIfInstanceOf(lastError, IOException.class);
+        throw (Ex.BadUpdateHash) lastError;
+    }
+
+    private Path downloadUpdate(UFXProtocol.Update update, URI url, Path outfile, long bytesToFetch) throws IOException, Ex {
+        // A file left behind by an interrupted download is kept, and we carry on from where it stopped. If the end
+        // result doesn't match the hash it may be a leftover from some other index, so then go once more from scratch.
+        long existing = isRegularFile(outfile) ? size(outfile) : 0;
+        if (existing > update.getPatchSize())
+            existing = 0;
+        long startTime = System.nanoTime();
+        Downloaded downloaded = download(url, outfile, existing, update, bytesToFetch);
+        long fetched = downloaded.fetched;
+        if (existing > 0 && !Arrays.equals(update.getPatchHash().toByteArray(), downloaded.sha256)) {
+            log.warn("Resumed download of {} did not match signed index hash, downloading it again", outfile);
+            downloaded = download(url, outfile, 0, update, bytesToFetch);
+            fetched += downloaded.fetched;
+        }
+        byte[] sha256 = downloaded.sha256;
+        if (!Arrays.equals(update.getPatchHash().toByteArray(), sha256)) {
+            log.error("Downloaded file did not match signed index hash: {} vs {}",
+                    BaseEncoding.base16().lowerCase().encode(sha256),
+                    BaseEncoding.base16().lowerCase().encode(update.getPatchHash().toByteArray()));
+            deleteIfExists(outfile);
+            throw new Ex.BadUpdateHash();
+        }
+        // Only now do we know the mirror sent what it should have.
+        if (fetched > 0)
+            mirrorStats.recordSuccess(url, fetched, System.nanoTime() - startTime);
+        return outfile;
+    }
+
+    private static class Downloaded {
+        final byte[] sha256;
+        final long fetched;   // How many bytes came over the network this time.
+
+        Downloaded(byte[] sha256, long fetched) {
+            this.sha256 = sha256;
+            this.fetched = fetched;
+        }
+    }
+
+    /** Downloads url into outfile, starting at the given offset if the server allows it, and returns the file's hash. */
+    private Downloaded download(URI url, Path outfile, long offset, UFXProtocol.Update update, long bytesToFetch) throws IOException {
+        MessageDigest digest = newSha256Digest();
+        if (offset > 0 && offset == update.getPatchSize()) {
+            // Got as far as the last byte before being interrupted.
+            hashInto(digest, outfile);
+            reportDownloaded(update, offset, bytesToFetch);
+            return new Downloaded(digest.digest(), 0);
+        }
+        log.info("Downloading update from {}", url);
+        URLConnection connection = openURL(url, offset);
+        if (offset > 0) {
+            if (isPartialContent(connection, offset)) {
+                log.info(" ... resuming {} from byte {}", outfile, offset);
+                hashInto(digest, outfile);
+                reportDownloaded(update, offset, bytesToFetch);
+            } else {
+                log.info(" ... server did not honour the range request, starting from the beginning");
+                if (!(connection instanceof HttpURLConnection) || ((HttpURLConnection) connection).getResponseCode() != HttpURLConnection.HTTP_OK) {
+                    discard(connection);
+                    connection = openURL(url);
                 }
+                offset = 0;
             }
         }
-        return files;
-    }
-
-    private void processDownloadedUpdates(List<UFXProtocol.Update> updates, List<Path> files) throws IOException, Ex.BadUpdateHash {
-        // Go through the list and apply each patch (it's an xdelta) to the previous version to create a new full
-        // blown JAR, which is then moved into the updates base dir. The first update is special and is applied
-        // to the base jar that came with the downloaded app.
-        int cursor = 0;
-        for (Path path : files) {
-            UFXProtocol.Update update = updates.get(cursor);
-            Path base = pathToOrigJar;
-            if (update.getVersion() > highestLocalVersion + 1)
-                base = localUpdatesDir.resolve((update.getVersion() - 1) + ".jar");
-            Path next = localUpdatesDir.resolve(update.getVersion() + ".jar");
-            log.info("Applying patch {} to {}", path, base);
-            // By here the patch hash was verified, but not the pre/post hashes.
-            byte[] preHash = sha256(readAllBytes(base));
-            if (!Arrays.equals(preHash, update.getPreHash().toByteArray()))
-                throw new Ex.BadUpdateHash();
-            if (update.getGzipped()) {
-                try (RandomAccessFileSeekableSource baseSource = new RandomAccessFileSeekableSource(new RandomAccessFile(base.toFile(), "r"));
-                     InputStream patchStream = new GZIPInputStream(new BufferedInputStream(Files.newInputStream(path)));
-                     OutputStream nextStream = new BufferedOutputStream(Files.newOutputStream(next))) {
-                    new GDiffPatcher().patch(baseSource, patchStream, nextStream);
+        if (offset == 0)
+            log.info(" ... saving to {}", outfile);
+        long size = connection.getContentLengthLong();
+        long start = offset;
+        OpenOption[] options = offset > 0 ?
+                new OpenOption[] { CREATE, APPEND } :
+                new OpenOption[] { CREATE, TRUNCATE_EXISTING, WRITE };
+        try (InputStream netStream = connection.getInputStream();
+             OutputStream savedFile = new DigestOutputStream(new BufferedOutputStream(newOutputStream(outfile, options)), digest)) {
+            BufferedInputStream bufStream = new BufferedInputStream(netStream);
+            ProgressCalculatingStream stream = new ProgressCalculatingStream(bufStream, size) {
+                @Override
+                protected void updateProgress(long readSoFar, long expectedBytes, double progress) {
+                    log.info(String.format("Download progress for version %d: %.2f%%", update.getVersion(), progress * 100));
+                    reportDownloaded(update, start + readSoFar, bytesToFetch);
                 }
-            } else {
-                new GDiffPatcher().patch(base.toFile(), path.toFile(), next.toFile());
+            };
+            long copied = ByteStreams.copy(stream, savedFile);
+            return new Downloaded(digest.digest(), copied);
+        }
+    }
+
+    /** Lets go of a connection we won't read from, so its socket or file isn't left open. */
+    private static void discard(URLConnection connection) {
+        if (connection instanceof HttpURLConnection) {
+            ((HttpURLConnection) connection).disconnect();
+            return;
+        }
+        try {
+            connection.getInputStream().close();
+        } catch (IOException e) {
+            // Nothing was open then.
+        }
+    }
+
+    private static boolean isPartialContent(URLConnection connection, long offset) throws IOException {
+        if (!(connection instanceof HttpURLConnection))
+            return false;
+        if (((HttpURLConnection) connection).getResponseCode() != HttpURLConnection.HTTP_PARTIAL)
+            return false;
+        // Content-Range: bytes 1000-1999/2000
+        String range = connection.getHeaderField("Content-Range");
+        return range != null && range.startsWith("bytes " + offset + "-");
+    }
+
+    private static MessageDigest newSha256Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);   // Cannot happen, every JVM has SHA-256.
+        }
+    }
+
+    private static void hashInto(MessageDigest digest, Path file) throws IOException {
+        try (InputStream stream = new DigestInputStream(newInputStream(file), digest)) {
+            ByteStreams.copy(stream, ByteStreams.nullOutputStream());
+        }
+    }
+
+    private synchronized void reportDownloaded(UFXProtocol.Update update, long bytesOnDisk, long bytesToFetch) {
+        // Called from all the download threads at once. Progress for each patch only counts the furthest it ever got,
+        // so retrying from another mirror or from scratch doesn't add anything until it gets further than before, and
+        // holding the lock whilst reporting keeps the numbers the UI sees going up monotonically.
+        long before = bytesDownloaded.getOrDefault(update.getVersion(), 0L);
+        if (bytesOnDisk <= before)
+            return;
+        bytesDownloaded.put(update.getVersion(), bytesOnDisk);
+        totalBytesDownloaded += bytesOnDisk - before;
+        updateProgress(totalBytesDownloaded, bytesToFetch);
+    }
+
+    private static <T> T await(Future<T> future) throws URISyntaxException, IOException, Ex, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            Throwables.propagateIfInstanceOf(cause, URISyntaxException.class);
+            Throwables.propagateIfInstanceOf(cause, IOException.class);
+            Throwables.propagateIfInstanceOf(cause, Ex.class);
+            throw Throwables.propagate(cause);
+        }
+    }
+
+    private void applyUpdate(UFXProtocol.Update update, Path path) throws IOException, Ex.BadUpdateHash {
+        List<File> sources = patchSources(update);
+        log.info("Applying patch {} to {}", path, sources);
+        // By here the patch hash was verified, but not the post hash. The new JAR is hashed as the patcher writes
+        // it, rather than being read back in afterwards.
+        Path newJar = tmpDir().resolve(update.getVersion() + ".jar");
+        byte[] postHash;
+        if (patchParallelism > 1 && !update.getGzipped()) {
+            // Written out of order, so hashed afterwards.
+            new ParallelGDiffPatcher(patchParallelism).patch(sources.toArray(new File[sources.size()]), path.toFile(), newJar.toFile());
+            installUpdate(update, newJar, sha256(newJar));
+            return;
+        }
+        try (SeekableSource baseSource = openSources(sources);
+             InputStream patchStream = openPatch(path, update.getGzipped());
+             HashingOutputStream nextStream = hashingFileStream(newJar)) {
+            new GDiffPatcher().patch(baseSource, patchStream, nextStream);
+            postHash = nextStream.hash().asBytes();
+        }
+        installUpdate(update, newJar, postHash);
+    }
+
+    /**
+     * Downloads the patch from the best mirror and applies it as it arrives, so the patching overlaps with the
+     * download and the patch is never read back from disk. What arrives is also saved, so if the connection drops the
+     * usual download carries on from there with a range request, trying the other mirrors first. If the mirror sent
+     * a bad patch, the usual download fetches it from the others.
+     */
+    private void streamUpdate(UFXProtocol.Update update, Path tmpDir, long bytesToFetch) throws URISyntaxException, IOException, Ex {
+        List<File> sources = patchSources(update);
+        List<URI> urls = mirrorURLs(update);
+        URI url = urls.get(0);
+        if (streamUpdate(update, url, sources, patchFile(update, tmpDir), bytesToFetch))
+            return;
+        List<URI> rest = new ArrayList<>(urls.subList(1, urls.size()));
+        rest.add(url);
+        applyUpdate(update, downloadUpdate(update, tmpDir, bytesToFetch, rest));
+    }
+
+    /**
+     * Returns false if the connection failed, leaving whatever arrived in patchFile, or if the mirror sent a patch
+     * that doesn't match the index. Errors writing locally are thrown as they are, and a patch that matches the index
+     * but doesn't apply is rejected with BadUpdateHash.
+     */
+    private boolean streamUpdate(UFXProtocol.Update update, URI url, List<File> sources, Path patchFile,
+                                 long bytesToFetch) throws IOException, Ex.BadUpdateHash {
+        log.info("Downloading update from {} and applying it to {}", url, sources);
+        long startTime = System.nanoTime();
+        Path newJar = tmpDir().resolve(update.getVersion() + ".jar");
+        MessageDigest digest = newSha256Digest();
+        OutputStream savedFile = new BufferedOutputStream(newOutputStream(patchFile, CREATE, TRUNCATE_EXISTING, WRITE));
+        URLConnection connection;
+        TeeInputStream network;
+        try {
+            connection = openURL(url);
+            network = new TeeInputStream(connection.getInputStream(), savedFile);
+        } catch (IOException e) {
+            savedFile.close();
+            return connectionFailed(update, url, e.toString());
+        }
+        Exception patchError = null;
+        long received;
+        byte[] postHash;
+        try (InputStream netStream = network;
+             SeekableSource baseSource = openSources(sources);
+             TrackingOutputStream jarFile = new TrackingOutputStream(newOutputStream(newJar));
+             HashingOutputStream nextStream = new HashingOutputStream(Hashing.sha256(), new BufferedOutputStream(jarFile))) {
+            ProgressCalculatingStream progress = new ProgressCalculatingStream(new BufferedInputStream(netStream), connection.getContentLengthLong()) {
+                @Override
+                protected void updateProgress(long readSoFar, long expectedBytes, double progress) {
+                    log.info(String.format("Download progress for version %d: %.2f%%", update.getVersion(), progress * 100));
+                    reportDownloaded(update, readSoFar, bytesToFetch);
+                }
+            };
+            CountingInputStream counted = new CountingInputStream(progress);
+            InputStream patchStream = new DigestInputStream(counted, digest);
+            try {
+                // Buffered above the digest, so it still sees every byte that arrives however far the patcher reads.
+                InputStream buffered = new BufferedInputStream(patchStream);
+                new GDiffPatcher().patch(baseSource, update.getGzipped() ? new GZIPInputStream(buffered) : buffered, nextStream);
+            } catch (IOException | RuntimeException e) {
+                // The connection, the disk, or the patch itself. Only the last is left to the hash check below.
+                if (network.readFailed || network.writeFailed || jarFile.failed)
+                    throw e;
+                patchError = e;
             }
-            byte[] postHash = sha256(readAllBytes(next));
-            if (!Arrays.equals(postHash, update.getPostHash().toByteArray()))
-                throw new Ex.BadUpdateHash();
-            checkState(update.getVersion() > newHighestVersion);
-            newHighestVersion = update.getVersion();
-            cursor++;
+            // The patcher stops at the end marker, which leaves the gzip trailer, so make sure the hash covers it all.
+            ByteStreams.copy(patchStream, ByteStreams.nullOutputStream());
+            received = counted.getCount();
+            postHash = nextStream.hash().asBytes();
+        } catch (IOException e) {
+            deleteIfExists(newJar);
+            if (!network.readFailed)
+                throw e;   // A local error, which another mirror won't fix.
+            return connectionFailed(update, url, e.toString());
+        }
+        if (received < update.getPatchSize()) {
+            deleteIfExists(newJar);
+            return connectionFailed(update, url, "closed after " + received + " bytes");
+        }
+        if (!Arrays.equals(update.getPatchHash().toByteArray(), digest.digest())) {
+            log.error("Downloaded patch for version {} did not match signed index hash", update.getVersion());
+            deleteIfExists(newJar);
+            deleteIfExists(patchFile);
+            return connectionFailed(update, url, "patch did not match signed index hash");
+        }
+        mirrorStats.recordSuccess(url, received, System.nanoTime() - startTime);
+        if (patchError != null) {
+            log.error("Patch for version {} could not be applied: {}", update.getVersion(), patchError.toString());
+            deleteIfExists(newJar);
+            throw new Ex.BadUpdateHash();
         }
+        installUpdate(update, newJar, postHash);
+        deleteIfExists(patchFile);
+        return true;
+    }
+
+    private boolean connectionFailed(UFXProtocol.Update update, URI url, String error) {
+        log.warn("Download of update {} from {} failed: {}", update.getVersion(), url, error);
+        mirrorStats.recordFailure(url);
+        return false;
+    }
+
+    /**
+     * Returns the jars the patch applies to, having checked the first one is what the patch expects. The first update
+     * is special and is applied to the base jar that came with the downloaded app.
+     */
+    private List<File> patchSources(UFXProtocol.Update update) throws IOException, Ex.BadUpdateHash {
+        Path base = baseJar(update);
+        if (!Arrays.equals(sha256(base), update.getPreHash().toByteArray()))
+            throw new Ex.BadUpdateHash();
+        // A multi source patch applies to older versions as well, appended after the previous one.
+        List<File> sources = new ArrayList<>();
+        sources.add(base.toFile());
+        for (int i = 1; i < update.getSourceVersionsCount(); i++)
+            sources.add(localJar(update.getSourceVersions(i)).toFile());
+        return sources;
+    }
+
+    private Path baseJar(UFXProtocol.Update update) {
+        if (update.getVersion() > highestLocalVersion + 1)
+            return localUpdatesDir.resolve((update.getVersion() - 1) + ".jar");
+        return pathToOrigJar;
+    }
+
+    private static SeekableSource openSources(List<File> sources) throws IOException {
+        if (sources.size() > 1)
+            return new ConcatSeekableSource(sources.toArray(new File[sources.size()]));
+        return new MappedFileSeekableSource(sources.get(0));
+    }
+
+    /**
+     * Moves the patched jar into the updates dir if it's what the index says it should be. Until then it stays in
+     * tmp, so a bad one is never picked up as the newest version.
+     */
+    private void installUpdate(UFXProtocol.Update update, Path newJar, byte[] postHash) throws IOException, Ex.BadUpdateHash {
+        if (!Arrays.equals(postHash, update.getPostHash().toByteArray())) {
+            deleteIfExists(newJar);
+            throw new Ex.BadUpdateHash();
+        }
+        move(newJar, localUpdatesDir.resolve(update.getVersion() + ".jar"), StandardCopyOption.REPLACE_EXISTING);
+        checkState(update.getVersion() > newHighestVersion);
+        newHighestVersion = update.getVersion();
+    }
+
+    /** Returns where the jar for the given version is, which is either an earlier update or the app's own jar. */
+    private Path localJar(int version) {
+        Path path = localUpdatesDir.resolve(version + ".jar");
+        if (!exists(path) && version == UpdateFX.extractVerFromFilename(pathToOrigJar))
+            return pathToOrigJar;
+        return path;
     }
 
     private URI maybeOverrideBaseURL(URI url) throws URISyntaxException {
@@ -212,6 +668,11 @@ public class Updater extends Task<UpdateSummary> {
         return new URI(indexURL.resolve(".") + "/" + split[split.length - 1]).normalize();
     }
 
+    private static InputStream openPatch(Path path, boolean gzipped) throws IOException {
+        InputStream stream = new BufferedInputStream(Files.newInputStream(path));
+        return gzipped ? new GZIPInputStream(stream) : stream;
+    }
+
     private HashingOutputStream hashingFileStream(Path outfile) throws IOException {
         return new HashingOutputStream(Hashing.sha256(), new BufferedOutputStream(newOutputStream(outfile)));
     }
@@ -237,6 +698,117 @@ public class Updater extends Task<UpdateSummary> {
             throw new Ex.InsufficientSigners();
     }
 
+    /**
+     * Saves everything read from the connection to a file as well, noting which side of it failed if anything does.
+     */
+    private static class TeeInputStream extends FilterInputStream {
+        private final OutputStream copy;
+        boolean readFailed, writeFailed;
+
+        TeeInputStream(InputStream in, OutputStream copy) {
+            super(in);
+            this.copy = copy;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n;
+            try {
+                n = in.read(b, off, len);
+            } catch (IOException e) {
+                readFailed = true;
+                throw e;
+            }
+            if (n > 0) {
+                try {
+                    copy.write(b, off, n);
+                } catch (IOException e) {
+                    writeFailed = true;
+                    throw e;
+                }
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // Skipped bytes would be missing from the copy.
+            return Math.max(0, read(new byte[(int) Math.min(n, 8192)]));
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                copy.close();
+            } catch (IOException e) {
+                writeFailed = true;
+                throw e;
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    /** Notes whether writing failed, to tell a full disk apart from a bad patch. */
+    private static class TrackingOutputStream extends FilterOutputStream {
+        boolean failed;
+
+        TrackingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            try {
+                out.write(b);
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            try {
+                out.write(b, off, len);
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                out.close();
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+        }
+    }
+
     public static class Ex extends Exception {
         public static class BadUpdateHash extends Ex {}
         public static class InsufficientSigners extends Ex {}
@@ -25,4 +25,9 @@ public class Utils {
     public static byte[] sha256(byte[] bits) {
         return Hashing.sha256().hashBytes(bits).asBytes();
     }
+
+    /** Hashes the file a buffer at a time, so it never has to fit in memory. */
+    public static byte[] sha256(Path path) throws IOException {
+        return com.google.common.io.Files.asByteSource(path.toFile()).hash(Hashing.sha256()).asBytes();
+    }
 }
@@ -0,0 +1,40 @@
+package com.nothome.delta;
+
+import org.junit.*;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class ChecksumIndexTest {
+    @Test
+    public void matchesHashMap() throws Exception {
+        // Starts small so it has to grow, and uses few distinct keys so there are plenty of overwrites.
+        ChecksumIndex index = new ChecksumIndex();
+        Map<Long, Integer> expected = new HashMap<>();
+        Random rnd = new Random(1);
+        for (int i = 0; i < 100000; i++) {
+            long key = rnd.nextInt(50000) - 25000;
+            Integer prev = expected.put(key, i);
+            assertEquals(prev == null ? -1 : prev, index.put(key, i));
+        }
+        assertEquals(expected.size(), index.size());
+        for (long key = -30000; key < 30000; key++) {
+            Integer value = expected.get(key);
+            assertEquals(value == null ? -1 : value, index.get(key));
+        }
+    }
+
+    @Test
+    public void presized() throws Exception {
+        ChecksumIndex index = new ChecksumIndex(3);
+        assertEquals(-1, index.get(0));
+        index.put(0, 7);
+        index.put(Long.MIN_VALUE, 8);
+        index.put(Long.MAX_VALUE, 9);
+        assertEquals(7, index.get(0));
+        assertEquals(8, index.get(Long.MIN_VALUE));
+        assertEquals(9, index.get(Long.MAX_VALUE));
+        assertEquals(-1, index.get(1));
+    }
+}
@@ -0,0 +1,84 @@
+package com.nothome.delta;
+
+import org.junit.*;
+
+import java.io.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class CoalescingDiffWriterTest {
+    private byte[] source;
+
+    @Before
+    public void setUp() {
+        source = new byte[100000];
+        new Random(1).nextBytes(source);
+    }
+
+    private interface Instructions {
+        void write(DiffWriter writer) throws IOException;
+    }
+
+    private byte[] patch(Instructions instructions, boolean coalesce, boolean withSource) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DiffWriter writer = new GDiffWriter(bytes);
+        if (coalesce)
+            writer = new CoalescingDiffWriter(writer, withSource ? new ByteBufferSeekableSource(source) : null);
+        instructions.write(writer);
+        writer.close();
+        return bytes.toByteArray();
+    }
+
+    private byte[] apply(byte[] patch) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        new GDiffPatcher().patch(source, new ByteArrayInputStream(patch), result);
+        return result.toByteArray();
+    }
+
+    @Test
+    public void joinsNeighbouringCopies() throws Exception {
+        Instructions split = writer -> {
+            writer.addCopy(70000, 100);
+            writer.addCopy(70100, 20000);
+            writer.addCopy(100, 50);
+            writer.addCopy(150, 50);
+        };
+        Instructions joined = writer -> {
+            writer.addCopy(70000, 20100);
+            writer.addCopy(100, 100);
+        };
+        byte[] patch = patch(split, true, false);
+        assertArrayEquals(patch(joined, false, false), patch);
+        assertArrayEquals(apply(patch(split, false, false)), apply(patch));
+    }
+
+    @Test
+    public void shortCopyBetweenData() throws Exception {
+        byte[] data = {1, 2, 3};
+        Instructions instructions = writer -> {
+            writer.addData(data, 0, 3);
+            writer.addCopy(70000, 4);
+            writer.addData(data, 0, 3);
+            writer.addCopy(70000, 50);
+            writer.addData((byte) 4);
+        };
+        byte[] plain = patch(instructions, false, false);
+        byte[] patch = patch(instructions, true, true);
+        // The first copy costs 6 bytes and the data either side joins up. The second is worth keeping.
+        assertEquals(plain.length - 6 - 1 + 4, patch.length);
+        assertArrayEquals(apply(plain), apply(patch));
+        // Without the source the copy has to stay.
+        assertArrayEquals(plain, patch(instructions, true, false));
+    }
+
+    @Test
+    public void copyPastEndIsKept() throws Exception {
+        Instructions instructions = writer -> {
+            writer.addData((byte) 1);
+            writer.addCopy(source.length - 2, 4);
+            writer.addData((byte) 2);
+        };
+        assertArrayEquals(patch(instructions, false, false), patch(instructions, true, true));
+    }
+}
@@ -0,0 +1,68 @@
+package com.nothome.delta;
+
+import org.junit.*;
+
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class ConcatSeekableSourceTest {
+    private byte[] random(int seed, int len) {
+        byte[] bits = new byte[len];
+        new Random(seed).nextBytes(bits);
+        return bits;
+    }
+
+    @Test
+    public void readsAcrossSources() throws Exception {
+        byte[] a = random(1, 100);
+        byte[] b = new byte[0];
+        byte[] c = random(2, 50);
+        byte[] all = new byte[150];
+        System.arraycopy(a, 0, all, 0, 100);
+        System.arraycopy(c, 0, all, 100, 50);
+        SeekableSource[] sources = {new ByteBufferSeekableSource(a), new ByteBufferSeekableSource(b), new ByteBufferSeekableSource(c)};
+        try (ConcatSeekableSource source = new ConcatSeekableSource(sources, new long[]{100, 0, 50})) {
+            assertEquals(150, source.length());
+            source.seek(90);
+            ByteBuffer buf = ByteBuffer.allocate(30);
+            assertEquals(30, source.read(buf));
+            assertArrayEquals(Arrays.copyOfRange(all, 90, 120), buf.array());
+
+            source.seek(100);
+            buf.clear();
+            assertEquals(30, source.read(buf));
+            assertArrayEquals(Arrays.copyOfRange(all, 100, 130), buf.array());
+            buf.clear();
+            assertEquals(20, source.read(buf));
+            assertEquals(-1, source.read(buf));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void seekPastEnd() throws Exception {
+        SeekableSource[] sources = {new ByteBufferSeekableSource(new byte[10])};
+        try (ConcatSeekableSource source = new ConcatSeekableSource(sources, new long[]{10})) {
+            source.seek(11);
+        }
+    }
+
+    @Test
+    public void patchAgainstSeveralSources() throws Exception {
+        byte[] older = random(3, 5000);
+        byte[] previous = random(4, 5000);
+        byte[] target = older.clone();
+        target[10]++;
+        SeekableSource[] sources = {new ByteBufferSeekableSource(previous), new ByteBufferSeekableSource(older)};
+        ByteArrayOutputStream patch = new ByteArrayOutputStream();
+        new Delta().compute(new ConcatSeekableSource(sources, new long[]{5000, 5000}),
+                new ByteArrayInputStream(target), new GDiffWriter(patch));
+        assertTrue(patch.size() < 1000);
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        new GDiffPatcher().patch(new ConcatSeekableSource(sources, new long[]{5000, 5000}),
+                new ByteArrayInputStream(patch.toByteArray()), result);
+        assertArrayEquals(target, result.toByteArray());
+    }
+}
@@ -0,0 +1,323 @@
+package com.nothome.delta;
+
+import org.junit.*;
+import org.junit.rules.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class DeltaTest {
+    @Rule public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    private byte[] random(int seed, int len) {
+        byte[] bits = new byte[len];
+        new Random(seed).nextBytes(bits);
+        return bits;
+    }
+
+    private byte[] concat(byte[]... parts) {
+        int len = 0;
+        for (byte[] part : parts)
+            len += part.length;
+        byte[] result = new byte[len];
+        int pos = 0;
+        for (byte[] part : parts) {
+            System.arraycopy(part, 0, result, pos, part.length);
+            pos += part.length;
+        }
+        return result;
+    }
+
+    /** Records the commands as "copy offset length" and "data length", with neighbouring data joined up. */
+    private static class Recorder implements DiffWriter {
+        final List<String> commands = new ArrayList<>();
+        int copies;
+        /** Copies that carry straight on from the one before, with no data in between. */
+        int neighbouringCopies;
+        private int data;
+        private long copyEnd = -1;
+
+        public void addCopy(long offset, int length) {
+            if (data == 0 && offset == copyEnd)
+                neighbouringCopies++;
+            endData();
+            commands.add("copy " + offset + " " + length);
+            copies++;
+            copyEnd = offset + length;
+        }
+
+        public void addData(byte b) {
+            data++;
+        }
+
+        public void addData(byte[] b, int off, int len) {
+            data += len;
+        }
+
+        private void endData() {
+            if (data > 0) {
+                commands.add("data " + data);
+                copyEnd = -1;
+            }
+            data = 0;
+        }
+
+        public void flush() {
+        }
+
+        public void close() {
+            endData();
+        }
+    }
+
+    private Recorder record(Delta delta, byte[] source, byte[] target) throws Exception {
+        Recorder recorder = new Recorder();
+        delta.compute(new ByteBufferSeekableSource(source), new ByteArrayInputStream(target), recorder);
+        return recorder;
+    }
+
+    private byte[] roundTrip(Delta delta, byte[] source, byte[] target) throws Exception {
+        byte[] patch = delta.compute(source, target);
+        assertArrayEquals(target, new GDiffPatcher().patch(source, patch));
+        return patch;
+    }
+
+    @Test
+    public void longestMatchPicksBetterCandidate() throws Exception {
+        // Two source blocks start with the same 16 bytes, but only the first one goes on to match the target.
+        byte[] prefix = random(1, 16);
+        byte[] good = random(2, 2000);
+        byte[] bad = random(3, 2000);
+        byte[] source = concat(prefix, good, prefix, bad);
+        byte[] target = concat(random(4, 100), prefix, good);
+
+        Delta first = new Delta();
+        byte[] firstPatch = roundTrip(first, source, target);
+
+        Delta longest = new Delta();
+        longest.setMatchStrategy(MatchStrategy.LONGEST);
+        byte[] longestPatch = roundTrip(longest, source, target);
+
+        assertTrue(longestPatch.length + " vs " + firstPatch.length, longestPatch.length < firstPatch.length);
+    }
+
+    @Test
+    public void strategiesRoundTrip() throws Exception {
+        byte[] source = random(5, 100000);
+        byte[] target = source.clone();
+        for (int i = 0; i < 100; i++)
+            target[i * 997] ^= 1;
+        target = concat(target, Arrays.copyOfRange(source, 500, 20000), random(6, 3000));
+        for (MatchStrategy strategy : MatchStrategy.values()) {
+            for (RollingHash hash : RollingHash.values()) {
+                for (int chunkSize : new int[]{4, 16, 64}) {
+                    Delta delta = new Delta();
+                    delta.setChunkSize(chunkSize);
+                    delta.setMatchStrategy(strategy);
+                    delta.setRollingHash(hash);
+                    roundTrip(delta, source, target);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void bulkDataMatchesSingleBytes() throws Exception {
+        // Longer than GDiffWriter.CHUNK_SIZE so the run has to be split.
+        byte[] data = random(7, 100000);
+        ByteArrayOutputStream single = new ByteArrayOutputStream();
+        GDiffWriter writer = new GDiffWriter(single);
+        for (byte b : data)
+            writer.addData(b);
+        writer.close();
+        ByteArrayOutputStream bulk = new ByteArrayOutputStream();
+        writer = new GDiffWriter(bulk);
+        writer.addData(data, 0, 10);
+        writer.addData(data, 10, data.length - 10);
+        writer.close();
+        assertArrayEquals(single.toByteArray(), bulk.toByteArray());
+        assertArrayEquals(data, new GDiffPatcher().patch(new byte[0], bulk.toByteArray()));
+    }
+
+    @Test
+    public void writerWithoutBulkData() throws Exception {
+        // Written before addData(byte[], int, int) existed, so gets the default that goes byte by byte.
+        byte[] source = random(9, 10000);
+        byte[] target = concat(random(10, 500), source, random(11, 500));
+        ByteArrayOutputStream patch = new ByteArrayOutputStream();
+        GDiffWriter output = new GDiffWriter(patch);
+        new Delta().compute(source, new ByteArrayInputStream(target), new DiffWriter() {
+            public void addCopy(long offset, int length) throws IOException {
+                output.addCopy(offset, length);
+            }
+
+            public void addData(byte b) throws IOException {
+                output.addData(b);
+            }
+
+            public void flush() throws IOException {
+                output.flush();
+            }
+
+            public void close() throws IOException {
+                output.close();
+            }
+        });
+        assertArrayEquals(new Delta().compute(source, target), patch.toByteArray());
+    }
+
+    @Test
+    public void patchFileToFile() throws Exception {
+        // Copies long enough to go through transferTo, with short ones and data in between.
+        byte[] source = random(8, 3 * GDiffPatcher.TRANSFER_MIN);
+        byte[] target = source.clone();
+        target[10]++;
+        target[GDiffPatcher.TRANSFER_MIN * 2]++;
+        target[GDiffPatcher.TRANSFER_MIN * 2 + 100]++;
+        File dir = tmpDir.getRoot();
+        File sourceFile = new File(dir, "source"), patchFile = new File(dir, "patch"), outputFile = new File(dir, "output");
+        try (FileOutputStream out = new FileOutputStream(sourceFile)) {
+            out.write(source);
+        }
+        try (FileOutputStream out = new FileOutputStream(patchFile)) {
+            out.write(new Delta().compute(source, target));
+        }
+        new GDiffPatcher().patch(sourceFile, patchFile, outputFile);
+        assertArrayEquals(target, Files.readAllBytes(outputFile.toPath()));
+    }
+
+    private byte[] computeFiles(Delta delta, File sourceFile, File targetFile) throws Exception {
+        ByteArrayOutputStream patch = new ByteArrayOutputStream();
+        delta.compute(sourceFile, targetFile, new GDiffWriter(patch));
+        return patch.toByteArray();
+    }
+
+    @Test
+    public void parallelScan() throws Exception {
+        // Long stretches of the source in a new order, so plenty of matches run over the ends of ranges.
+        byte[] source = random(9, 300000);
+        Random random = new Random(10);
+        ByteArrayOutputStream bits = new ByteArrayOutputStream();
+        while (bits.size() < 300000) {
+            int start = random.nextInt(source.length - 30000);
+            bits.write(source, start, 1000 + random.nextInt(29000));
+            bits.write(random(random.nextInt(), random.nextInt(100)));
+        }
+        byte[] target = bits.toByteArray();
+        File dir = tmpDir.getRoot();
+        File sourceFile = new File(dir, "source"), targetFile = new File(dir, "target");
+        Files.write(sourceFile.toPath(), source);
+        Files.write(targetFile.toPath(), target);
+
+        byte[] serial = computeFiles(new Delta(), sourceFile, targetFile);
+        byte[][] patches = new byte[3][];
+        for (int i = 0; i < patches.length; i++) {
+            Delta delta = new Delta();
+            delta.setRangeSize(10000);
+            delta.setThreads(2 + i);
+            patches[i] = computeFiles(delta, sourceFile, targetFile);
+        }
+        // The same whatever the number of threads.
+        assertArrayEquals(patches[0], patches[1]);
+        assertArrayEquals(patches[0], patches[2]);
+        assertArrayEquals(target, new GDiffPatcher().patch(source, patches[0]));
+        // Matches cut at the ends of ranges are joined back up.
+        assertTrue(patches[0].length + " vs " + serial.length, patches[0].length < serial.length + 200);
+    }
+
+    @Test
+    public void parallelScanUnrelated() throws Exception {
+        // Nearly all literals, so each range stages a lot of data before it is written out.
+        byte[] source = random(15, 50000);
+        byte[] target = concat(random(16, 100000), Arrays.copyOfRange(source, 1000, 3000), random(17, 100000));
+        File dir = tmpDir.getRoot();
+        File sourceFile = new File(dir, "source"), targetFile = new File(dir, "target");
+        Files.write(sourceFile.toPath(), source);
+        Files.write(targetFile.toPath(), target);
+        Delta delta = new Delta();
+        delta.setRangeSize(30000);
+        delta.setThreads(2);
+        assertArrayEquals(target, new GDiffPatcher().patch(source, computeFiles(delta, sourceFile, targetFile)));
+    }
+
+    @Test
+    public void parallelScanEmptyTarget() throws Exception {
+        File dir = tmpDir.getRoot();
+        File sourceFile = new File(dir, "source"), targetFile = new File(dir, "target");
+        Files.write(sourceFile.toPath(), random(11, 1000));
+        Files.write(targetFile.toPath(), new byte[0]);
+        Delta delta = new Delta();
+        delta.setThreads(2);
+        assertArrayEquals(computeFiles(new Delta(), sourceFile, targetFile), computeFiles(delta, sourceFile, targetFile));
+    }
+
+    @Test
+    public void computeSendsCommandsAsFound() throws Exception {
+        byte[] source = random(12, 10000);
+        byte[] target = source.clone();
+        target[5000]++;
+        assertEquals(Arrays.asList("copy 0 5000", "data 1", "copy 5001 4999"), record(new Delta(), source, target).commands);
+    }
+
+    @Test
+    public void computeNeverSendsNeighbouringCopies() throws Exception {
+        // A match only ends where the bytes differ, so the next one can't carry on from it. That is why the output
+        // isn't put through a CoalescingDiffWriter.
+        byte[] source = random(13, 200000);
+        Random random = new Random(14);
+        ByteArrayOutputStream bits = new ByteArrayOutputStream();
+        while (bits.size() < 200000) {
+            int start = random.nextInt(source.length - 5000);
+            bits.write(source, start, random.nextInt(5000));
+            if (random.nextBoolean())
+                bits.write(random(random.nextInt(), random.nextInt(20)));
+        }
+        byte[] target = bits.toByteArray();
+        for (MatchStrategy strategy : MatchStrategy.values()) {
+            Delta delta = new Delta();
+            delta.setMatchStrategy(strategy);
+            Recorder recorder = record(delta, source, target);
+            assertTrue(recorder.copies > 50);
+            assertEquals(0, recorder.neighbouringCopies);
+            roundTrip(delta, source, target);
+        }
+    }
+
+    @Test
+    public void matchExtendsBackOverLiterals() throws Exception {
+        // The target picks up from source byte 90, but only the block at 96 is indexed. The six bytes before it are
+        // taken back from the literals and copied too.
+        byte[] source = random(15, 1000);
+        byte[] junk = random(16, 7);
+        junk[6] = (byte) (source[89] + 1);
+        byte[] tail = random(17, 20);
+        tail[0] = (byte) (source[400] + 1);
+        byte[] target = concat(junk, Arrays.copyOfRange(source, 90, 400), tail);
+        assertEquals(Arrays.asList("data 7", "copy 90 310", "data 20"), record(new Delta(), source, target).commands);
+        roundTrip(new Delta(), source, target);
+    }
+
+    @Test
+    public void shortMatchGivesLiteralsBack() throws Exception {
+        // Swapping "ab" and "ba" in a block keeps its checksum, so the block at 96 is found, and extended back over the
+        // six literals before it. But the bytes differ after four, which is too short a match, so all of it has to
+        // go back to being literals.
+        byte[] source = random(18, 1000);
+        source[100] = source[105] = 1;
+        source[101] = source[104] = 2;
+        byte[] block = Arrays.copyOfRange(source, 96, 112);
+        block[4] = block[9] = 2;
+        block[5] = block[8] = 1;
+        assertEquals(Checksum.queryChecksum(ByteBuffer.wrap(source, 96, 16).slice(), 16),
+                Checksum.queryChecksum(ByteBuffer.wrap(block), 16));
+        byte[] junk = random(19, 7);
+        junk[6] = (byte) (source[89] + 1);
+        byte[] target = concat(junk, Arrays.copyOfRange(source, 90, 96), block, random(20, 40));
+        assertEquals(Collections.singletonList("data " + target.length), record(new Delta(), source, target).commands);
+        roundTrip(new Delta(), source, target);
+    }
+}
@@ -0,0 +1,79 @@
+package com.nothome.delta;
+
+import org.junit.*;
+
+import java.io.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class GDiffComposerTest {
+    /** Returns a copy of bits with a few ranges moved around, rewritten, inserted or dropped. */
+    private byte[] mutate(byte[] bits, Random random) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int pos = 0;
+        while (pos < bits.length) {
+            int len = Math.min(bits.length - pos, 1 + random.nextInt(2000));
+            switch (random.nextInt(6)) {
+                case 0:
+                    byte[] fresh = new byte[1 + random.nextInt(300)];
+                    random.nextBytes(fresh);
+                    out.write(fresh, 0, fresh.length);
+                    break;
+                case 1:
+                    break;   // Dropped.
+                case 2:
+                    int from = random.nextInt(bits.length);
+                    out.write(bits, from, Math.min(len, bits.length - from));
+                    break;
+                default:
+                    out.write(bits, pos, len);
+            }
+            pos += len;
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void composesChain() throws Exception {
+        Random random = new Random(1);
+        byte[] base = new byte[50000];
+        random.nextBytes(base);
+        GDiffComposer composer = new GDiffComposer();
+        byte[] cur = base;
+        for (int i = 0; i < 10; i++) {
+            byte[] next = mutate(cur, random);
+            composer.add(new ByteArrayInputStream(new Delta().compute(cur, next)));
+            cur = next;
+        }
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        composer.patch(new ByteBufferSeekableSource(base), result);
+        assertArrayEquals(cur, result.toByteArray());
+    }
+
+    @Test
+    public void singlePatch() throws Exception {
+        Random random = new Random(2);
+        byte[] base = new byte[10000];
+        random.nextBytes(base);
+        byte[] target = mutate(base, random);
+        GDiffComposer composer = new GDiffComposer();
+        composer.add(new ByteArrayInputStream(new Delta().compute(base, target)));
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        composer.patch(new ByteBufferSeekableSource(base), result);
+        assertArrayEquals(target, result.toByteArray());
+    }
+
+    @Test(expected = PatchException.class)
+    public void copyPastEnd() throws Exception {
+        byte[] base = new byte[100];
+        GDiffComposer composer = new GDiffComposer();
+        composer.add(new ByteArrayInputStream(new Delta().compute(base, base)));
+        // Copies 200 bytes out of a 100 byte file.
+        ByteArrayOutputStream patch = new ByteArrayOutputStream();
+        GDiffWriter writer = new GDiffWriter(patch);
+        writer.addCopy(0, 200);
+        writer.close();
+        composer.add(new ByteArrayInputStream(patch.toByteArray()));
+    }
+}
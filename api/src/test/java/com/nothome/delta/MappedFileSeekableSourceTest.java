@@ -0,0 +1,84 @@
+package com.nothome.delta;
+
+import org.junit.*;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.file.*;
+import java.util.*;
+
+import static java.nio.file.Files.*;
+import static org.junit.Assert.*;
+
+public class MappedFileSeekableSourceTest {
+    private Path dir;
+    private byte[] bits;
+    private Path file;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = createTempDirectory("updatefx");
+        bits = new byte[1000];
+        new Random(1).nextBytes(bits);
+        file = dir.resolve("source");
+        write(file, bits);
+    }
+
+    @Test
+    public void readsAcrossMaps() throws Exception {
+        // A tiny map size forces every read to straddle several mappings.
+        try (MappedFileSeekableSource source = new MappedFileSeekableSource(file.toFile(), 7)) {
+            assertEquals(bits.length, source.length());
+            source.seek(5);
+            ByteBuffer buf = ByteBuffer.allocateDirect(100);
+            assertEquals(100, source.read(buf));
+            buf.flip();
+            byte[] result = new byte[100];
+            buf.get(result);
+            assertArrayEquals(Arrays.copyOfRange(bits, 5, 105), result);
+
+            source.seek(990);
+            buf.clear();
+            assertEquals(10, source.read(buf));
+            assertEquals(-1, source.read(buf));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void seekPastEnd() throws Exception {
+        try (MappedFileSeekableSource source = new MappedFileSeekableSource(file.toFile())) {
+            source.seek(bits.length + 1);
+        }
+    }
+
+    @Test
+    public void closeUnmaps() throws Exception {
+        MappedFileSeekableSource source = new MappedFileSeekableSource(file.toFile(), 7);
+        source.close();
+        source.close();
+        // The file can go straight away, even on Windows, and the source fails cleanly instead of touching the
+        // unmapped memory.
+        move(file, dir.resolve("moved"));
+        delete(dir.resolve("moved"));
+        try {
+            source.read(ByteBuffer.allocate(10));
+            fail();
+        } catch (IOException e) {
+            // Expected.
+        }
+    }
+
+    @Test
+    public void patchFiles() throws Exception {
+        byte[] next = bits.clone();
+        System.arraycopy(bits, 0, next, 500, 200);
+        next[10] = 42;
+        Path target = dir.resolve("target");
+        write(target, next);
+        Path patch = dir.resolve("patch");
+        new Delta().compute(file.toFile(), target.toFile(), new GDiffWriter(newOutputStream(patch)));
+        Path output = dir.resolve("output");
+        new GDiffPatcher().patch(file.toFile(), patch.toFile(), output.toFile());
+        assertArrayEquals(next, readAllBytes(output));
+    }
+}
@@ -0,0 +1,89 @@
+package com.nothome.delta;
+
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class ParallelGDiffPatcherTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private byte[] source, target;
+    private File sourceFile;
+
+    @Before
+    public void setUp() throws Exception {
+        Random random = new Random(1);
+        source = new byte[500000];
+        random.nextBytes(source);
+        // Some of the source moved around, with new bits in between.
+        ByteArrayOutputStream bits = new ByteArrayOutputStream();
+        for (int i = 0; i < 50; i++) {
+            int start = random.nextInt(source.length - 20000);
+            bits.write(source, start, 5000 + random.nextInt(15000));
+            byte[] fresh = new byte[random.nextInt(3000)];
+            random.nextBytes(fresh);
+            bits.write(fresh);
+        }
+        target = bits.toByteArray();
+        sourceFile = tmp.newFile("source");
+        Files.write(sourceFile.toPath(), source);
+    }
+
+    private File patch(long interval) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GDiffWriter writer = new GDiffWriter(bytes);
+        if (interval > 0)
+            writer.setIndexInterval(interval);
+        new Delta().compute(new ByteBufferSeekableSource(source), new ByteArrayInputStream(target), writer);
+        File patch = tmp.newFile();
+        Files.write(patch.toPath(), bytes.toByteArray());
+        return patch;
+    }
+
+    @Test
+    public void appliesInParts() throws Exception {
+        File patch = patch(16 * 1024);
+        GDiffIndex index = GDiffIndex.read(patch);
+        assertNotNull(index);
+        assertTrue(index.size() > 10);
+        assertEquals(target.length, index.outputLength());
+        File output = tmp.newFile();
+        new ParallelGDiffPatcher(4).patch(new File[]{sourceFile}, patch, output);
+        assertArrayEquals(target, Files.readAllBytes(output.toPath()));
+    }
+
+    @Test
+    public void indexIsIgnoredByOtherPatchers() throws Exception {
+        File patch = patch(16 * 1024);
+        File output = tmp.newFile();
+        new GDiffPatcher().patch(sourceFile, patch, output);
+        assertArrayEquals(target, Files.readAllBytes(output.toPath()));
+    }
+
+    @Test
+    public void noIndex() throws Exception {
+        File patch = patch(0);
+        assertNull(GDiffIndex.read(patch));
+        File output = tmp.newFile();
+        new ParallelGDiffPatcher(4).patch(new File[]{sourceFile}, patch, output);
+        assertArrayEquals(target, Files.readAllBytes(output.toPath()));
+    }
+
+    @Test(expected = PatchException.class)
+    public void partOverrunsCommand() throws Exception {
+        File patch = patch(16 * 1024);
+        GDiffIndex index = GDiffIndex.read(patch);
+        // Stop one byte short of where the first part really ends.
+        try (InputStream in = new FileInputStream(patch)) {
+            in.skip(index.patchOffset(0));
+            new GDiffPatcher().patchPart(new ByteBufferSeekableSource(source), in, new ByteArrayOutputStream(),
+                    index.outputLength(0) - 1);
+        }
+    }
+}
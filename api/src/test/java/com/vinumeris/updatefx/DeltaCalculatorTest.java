@@ -0,0 +1,138 @@
+package com.vinumeris.updatefx;
+
+import com.nothome.delta.MatchStrategy;
+import org.junit.*;
+import org.junit.rules.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+
+import static java.nio.file.Files.*;
+import static org.junit.Assert.*;
+
+public class DeltaCalculatorTest {
+    @Rule public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    private Path jars, site, cache;
+
+    @Before
+    public void setUp() throws Exception {
+        jars = tmpDir.newFolder("jars").toPath();
+        site = tmpDir.newFolder("site").toPath();
+        cache = tmpDir.getRoot().toPath().resolve("cache");
+        // Each version changes a few bytes of the one before and adds a bit on the end.
+        Random random = new Random(1);
+        byte[] jar = new byte[64 * 1024];
+        random.nextBytes(jar);
+        for (int v = 1; v <= 5; v++) {
+            for (int i = 0; i < 20; i++)
+                jar[random.nextInt(jar.length)]++;
+            byte[] extra = new byte[1000];
+            random.nextBytes(extra);
+            jar = Arrays.copyOf(jar, jar.length + extra.length);
+            System.arraycopy(extra, 0, jar, jar.length - extra.length, extra.length);
+            write(jars.resolve(v + ".jar"), jar);
+        }
+    }
+
+    private DeltaCalculator.Options cached() {
+        DeltaCalculator.Options options = new DeltaCalculator.Options();
+        options.cacheDir = cache;
+        return options;
+    }
+
+    private List<Path> cachedPatches() throws IOException {
+        List<Path> patches = new ArrayList<>();
+        try (DirectoryStream<Path> stream = newDirectoryStream(cache, "*.bpatch")) {
+            for (Path path : stream)
+                patches.add(path);
+        }
+        return patches;
+    }
+
+    private static void assertSameResults(List<DeltaCalculator.Result> expected, List<DeltaCalculator.Result> actual) throws IOException {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            DeltaCalculator.Result a = expected.get(i), b = actual.get(i);
+            assertArrayEquals(a.preHash, b.preHash);
+            assertArrayEquals(a.patchHash, b.patchHash);
+            assertArrayEquals(a.postHash, b.postHash);
+            assertEquals(a.patchSize, b.patchSize);
+            assertEquals(a.sources, b.sources);
+        }
+    }
+
+    @Test
+    public void parallelMatchesSerial() throws Exception {
+        Path serialSite = tmpDir.newFolder("serial").toPath();
+        List<DeltaCalculator.Result> serial = DeltaCalculator.process(jars, serialSite, new DeltaCalculator.Options());
+        DeltaCalculator.Options options = new DeltaCalculator.Options();
+        options.threads = 3;
+        List<DeltaCalculator.Result> parallel = DeltaCalculator.process(jars, site, options);
+        // Same results in the same order, so the index built from them is the same too.
+        assertSameResults(serial, parallel);
+        for (int i = 0; i < serial.size(); i++) {
+            assertEquals(site.resolve((i + 2) + ".jar.bpatch"), parallel.get(i).path);
+            assertArrayEquals(readAllBytes(serial.get(i).path), readAllBytes(parallel.get(i).path));
+        }
+    }
+
+    @Test
+    public void cacheHit() throws Exception {
+        List<DeltaCalculator.Result> first = DeltaCalculator.process(jars, site, cached());
+        List<Path> patches = cachedPatches();
+        assertEquals(4, patches.size());
+        for (Path patch : patches)
+            setLastModifiedTime(patch, FileTime.fromMillis(0));
+        List<DeltaCalculator.Result> second = DeltaCalculator.process(jars, site, cached());
+        assertSameResults(first, second);
+        // Calculating a patch again would have replaced its cache entry.
+        for (Path patch : cachedPatches())
+            assertEquals(0, getLastModifiedTime(patch).toMillis());
+    }
+
+    @Test
+    public void cacheMissOnDifferentSettings() throws Exception {
+        DeltaCalculator.process(jars, site, cached());
+        DeltaCalculator.Options chunkSize = cached();
+        chunkSize.chunkSize = 32;
+        DeltaCalculator.process(jars, site, chunkSize);
+        DeltaCalculator.Options strategy = cached();
+        strategy.matchStrategy = MatchStrategy.LONGEST;
+        DeltaCalculator.process(jars, site, strategy);
+        DeltaCalculator.Options gzip = cached();
+        gzip.gzipFrom = Integer.MAX_VALUE;
+        DeltaCalculator.process(jars, site, gzip);
+        // Four patches for each of the four settings, none of them taken from another's entry.
+        assertEquals(16, cachedPatches().size());
+        DeltaCalculator.Options uncached = new DeltaCalculator.Options();
+        uncached.gzipFrom = Integer.MAX_VALUE;
+        assertSameResults(DeltaCalculator.process(jars, site, uncached), DeltaCalculator.process(jars, site, gzip));
+    }
+
+    @Test
+    public void damagedCacheEntryNotServed() throws Exception {
+        List<DeltaCalculator.Result> first = DeltaCalculator.process(jars, site, cached());
+        List<Path> patches = cachedPatches();
+        Collections.sort(patches);
+        // One cut short, one with a byte changed, one with its hash missing as if written by an older version.
+        byte[] bits = readAllBytes(patches.get(0));
+        write(patches.get(0), Arrays.copyOf(bits, bits.length / 2));
+        bits = readAllBytes(patches.get(1));
+        bits[bits.length / 2]++;
+        write(patches.get(1), bits);
+        String name = patches.get(2).getFileName().toString();
+        delete(patches.get(2).resolveSibling(name.replace(".bpatch", ".sha256")));
+        assertSameResults(first, DeltaCalculator.process(jars, site, cached()));
+        for (DeltaCalculator.Result result : first)
+            assertArrayEquals(result.patchHash, Utils.sha256(result.path));
+        // And the entries were put right for next time.
+        for (Path patch : patches)
+            setLastModifiedTime(patch, FileTime.fromMillis(0));
+        assertSameResults(first, DeltaCalculator.process(jars, site, cached()));
+        for (Path patch : cachedPatches())
+            assertEquals(0, getLastModifiedTime(patch).toMillis());
+    }
+}
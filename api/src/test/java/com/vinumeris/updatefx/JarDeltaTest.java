@@ -0,0 +1,93 @@
+package com.vinumeris.updatefx;
+
+import com.nothome.delta.*;
+import org.junit.*;
+import org.junit.rules.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.*;
+
+import static org.junit.Assert.*;
+
+public class JarDeltaTest {
+    @Rule public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    private Map<String, byte[]> entries;
+
+    @Before
+    public void setUp() {
+        entries = new LinkedHashMap<>();
+        Random random = new Random(1);
+        for (int i = 0; i < 200; i++) {
+            byte[] bits = new byte[2000 + random.nextInt(2000)];
+            random.nextBytes(bits);
+            entries.put("com/example/Class" + i + ".class", bits);
+        }
+    }
+
+    // Written the way ProcessZIP writes them: stored, with the timestamps zeroed.
+    private File writeJar(String name, Map<String, byte[]> contents) throws IOException {
+        File file = tmpDir.newFile(name);
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(file.toPath()))) {
+            for (Map.Entry<String, byte[]> e : contents.entrySet()) {
+                ZipEntry entry = new ZipEntry(e.getKey());
+                entry.setTime(0);
+                entry.setMethod(ZipEntry.STORED);
+                entry.setSize(e.getValue().length);
+                CRC32 crc = new CRC32();
+                crc.update(e.getValue());
+                entry.setCrc(crc.getValue());
+                zip.putNextEntry(entry);
+                zip.write(e.getValue());
+                zip.closeEntry();
+            }
+        }
+        return file;
+    }
+
+    private void checkPatch(File source, File target, int maxSize) throws IOException {
+        ByteArrayOutputStream patch = new ByteArrayOutputStream();
+        new JarDelta(new Delta()).compute(source, target, new GDiffWriter(patch));
+        assertTrue("patch is " + patch.size() + " bytes", patch.size() <= maxSize);
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        new GDiffPatcher().patch(Files.readAllBytes(source.toPath()), new ByteArrayInputStream(patch.toByteArray()), result);
+        assertArrayEquals(Files.readAllBytes(target.toPath()), result.toByteArray());
+    }
+
+    @Test
+    public void unchanged() throws Exception {
+        File a = writeJar("1.jar", entries);
+        File b = writeJar("2.jar", entries);
+        checkPatch(a, b, 100);
+    }
+
+    @Test
+    public void changedEntries() throws Exception {
+        File a = writeJar("1.jar", entries);
+        Map<String, byte[]> changed = new LinkedHashMap<>(entries);
+        // Edited in place, removed, renamed and added.
+        changed.get("com/example/Class5.class")[100]++;
+        changed.remove("com/example/Class10.class");
+        changed.put("com/example/Renamed.class", changed.remove("com/example/Class20.class"));
+        byte[] added = new byte[3000];
+        new Random(2).nextBytes(added);
+        changed.put("com/example/Added.class", added);
+        File b = writeJar("2.jar", changed);
+        // The new class has to be sent and the central directory rewritten, everything else is copied.
+        checkPatch(a, b, added.length + 6000);
+    }
+
+    @Test
+    public void notAZip() throws Exception {
+        File a = tmpDir.newFile("1.jar");
+        File b = tmpDir.newFile("2.jar");
+        byte[] bits = new byte[10000];
+        new Random(3).nextBytes(bits);
+        Files.write(a.toPath(), bits);
+        bits[5000]++;
+        Files.write(b.toPath(), bits);
+        checkPatch(a, b, 1000);
+    }
+}
@@ -2,6 +2,7 @@ package com.vinumeris.updatefx;
 
 import com.google.common.hash.*;
 import com.google.protobuf.*;
+import com.nothome.delta.GDiffIndex;
 import com.sun.net.httpserver.*;
 import org.bouncycastle.math.ec.*;
 import org.junit.*;
@@ -22,13 +23,18 @@ import static org.junit.Assert.*;
 public class UpdaterTest {
     private static final int HTTP_LOCAL_TEST_PORT = 18475;
     public static final String SERVER_PATH = "/_updatefx/appname";
-    private HttpServer localServer;
+    private HttpServer localServer, badServer;
     private Map<String, byte[]> paths;
     private Updater updater;
     private Path dir;
     private URI indexURL;
 
     private long workDone, workMax;
+    private boolean supportRanges;
+    private int rangeRefusal;
+    private String deadMirror;
+    private int dropAfter = -1;
+    private List<String> rangeRequests = Collections.synchronizedList(new ArrayList<>());
 
     private List<BigInteger> privKeys;
     private List<ECPoint> pubKeys;
@@ -50,6 +56,31 @@ public class UpdaterTest {
                 exchange.sendResponseHeaders(404, -1);
                 return;
             }
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            if (range != null && rangeRefusal != 0) {
+                rangeRequests.add(range);
+                exchange.sendResponseHeaders(rangeRefusal, -1);
+                exchange.close();
+                return;
+            }
+            if (range != null && supportRanges) {
+                rangeRequests.add(range);
+                // Only the "bytes=N-" form is used by the updater.
+                int from = Integer.parseInt(range.substring("bytes=".length(), range.length() - 1));
+                exchange.getResponseHeaders().add("Content-Range", "bytes " + from + "-" + (bits.length - 1) + "/" + bits.length);
+                exchange.sendResponseHeaders(HTTP_PARTIAL, bits.length - from);
+                exchange.getResponseBody().write(bits, from, bits.length - from);
+                exchange.getResponseBody().close();
+                return;
+            }
+            if (dropAfter >= 0 && path.endsWith(".bpatch")) {
+                // Chunked, so the client can only tell from the index that the rest never came.
+                exchange.sendResponseHeaders(HTTP_OK, 0);
+                exchange.getResponseBody().write(bits, 0, dropAfter);
+                exchange.getResponseBody().close();
+                dropAfter = -1;
+                return;
+            }
             exchange.sendResponseHeaders(HTTP_OK, bits.length);
             exchange.getResponseBody().write(bits);
             exchange.getResponseBody().close();
@@ -82,6 +113,8 @@ public class UpdaterTest {
     @After
     public void tearDown() throws Exception {
         localServer.stop(Integer.MAX_VALUE);
+        if (badServer != null)
+            badServer.stop(Integer.MAX_VALUE);
     }
 
     @Test(expected = FileNotFoundException.class)
@@ -96,7 +129,6 @@ public class UpdaterTest {
     }
 
     private UFXProtocol.SignedUpdates.Builder buildIndex(byte[]... hash) {
-        UFXProtocol.SignedUpdates.Builder signedUpdates = UFXProtocol.SignedUpdates.newBuilder();
         UFXProtocol.Updates.Builder updates = UFXProtocol.Updates.newBuilder();
         updates.setVersion(1);
         int verCursor = 2;
@@ -105,6 +137,8 @@ public class UpdaterTest {
             update.setVersion(verCursor);
             String serverPath = "/" + verCursor + ".jar.bpatch";
             verCursor++;
+            if (deadMirror != null)
+                update.addUrls(deadMirror + SERVER_PATH + serverPath);
             update.addUrls("http://localhost:" + HTTP_LOCAL_TEST_PORT + SERVER_PATH + serverPath);
             update.setPreHash(ByteString.copyFrom(hash[i++]));
             update.setPatchHash(ByteString.copyFrom(hash[i++]));
@@ -116,6 +150,11 @@ public class UpdaterTest {
             update.setGzipped(true);
             updates.addUpdates(update);
         }
+        return signIndex(updates);
+    }
+
+    private UFXProtocol.SignedUpdates.Builder signIndex(UFXProtocol.Updates.Builder updates) {
+        UFXProtocol.SignedUpdates.Builder signedUpdates = UFXProtocol.SignedUpdates.newBuilder();
         ByteString bytes = updates.build().toByteString();
         signedUpdates.setUpdates(bytes);
         String message = Hashing.sha256().hashBytes(bytes.toByteArray()).toString();
@@ -269,6 +308,36 @@ public class UpdaterTest {
         assertEquals(3, summary.highestVersion);
     }
 
+    @Test
+    public void composedUpdateRun() throws Exception {
+        Path working = dir.resolve("working");
+        createDirectory(working);
+        byte[] baseFile = new byte[2048];
+        Arrays.fill(baseFile, (byte) 1);
+        Path baseJar = working.resolve("1.jar");
+        write(baseJar, baseFile, CREATE_NEW);
+        baseFile[0] = 2;
+        Path jar2 = working.resolve("2.jar");
+        write(jar2, baseFile, CREATE_NEW);
+        baseFile[0] = 3;
+        Path jar3 = working.resolve("3.jar");
+        write(jar3, baseFile, CREATE_NEW);
+        DeltaCalculator.process(working.toAbsolutePath(), working.toAbsolutePath(), -1);
+        byte[] bpatch1bits = readAllBytes(working.resolve("2.jar.bpatch"));
+        byte[] bpatch2bits = readAllBytes(working.resolve("3.jar.bpatch"));
+        paths.put("/2.jar.bpatch", bpatch1bits);
+        paths.put("/3.jar.bpatch", bpatch2bits);
+        // The middle post hash is wrong, but only the last one is checked.
+        configureIndex(sha256(readAllBytes(baseJar)), sha256(bpatch1bits), new byte[32],
+                       new byte[32], sha256(bpatch2bits), sha256(readAllBytes(jar3)));
+        updater = new TestUpdater(indexURL, "UnitTest", dir, baseJar);
+        updater.setComposePatches(true);
+        UpdateSummary summary = updater.call();
+        assertEquals(3, summary.highestVersion);
+        assertArrayEquals(baseFile, readAllBytes(dir.resolve("3.jar")));
+        assertFalse(exists(dir.resolve("2.jar")));
+    }
+
     @Test
     public void updateRunWithPinning() throws Exception {
         // Update from v2 to v3, whilst we are pinned to v2.
@@ -308,6 +377,413 @@ public class UpdaterTest {
         UpdateFX.unpin(dir);
     }
 
+    @Test
+    public void resumesPartialDownload() throws Exception {
+        Path working = dir.resolve("working");
+        createDirectory(working);
+        byte[] baseFile = new byte[2048];
+        Arrays.fill(baseFile, (byte) 1);
+        Path baseJar = working.resolve("1.jar");
+        write(baseJar, baseFile, CREATE_NEW);
+        baseFile[0] = 2;
+        Path jar2 = working.resolve("2.jar");
+        write(jar2, baseFile, CREATE_NEW);
+        DeltaCalculator.process(working.toAbsolutePath(), working.toAbsolutePath(), -1);
+        byte[] bpatchBits = readAllBytes(working.resolve("2.jar.bpatch"));
+        paths.put("/2.jar.bpatch", bpatchBits);
+        configureIndex(sha256(readAllBytes(baseJar)), sha256(bpatchBits), sha256(readAllBytes(jar2)));
+        // Simulate a download that was cut off half way through.
+        int half = bpatchBits.length / 2;
+        createDirectory(dir.resolve("tmp"));
+        write(dir.resolve("tmp").resolve("2.jar.bpatch"), Arrays.copyOf(bpatchBits, half), CREATE_NEW);
+        supportRanges = true;
+        updater = new TestUpdater(indexURL, "UnitTest", dir, baseJar);
+        UpdateSummary summary = updater.call();
+        assertEquals(Collections.singletonList("bytes=" + half + "-"), rangeRequests);
+        assertEquals(bpatchBits.length, workDone);
+        assertEquals(bpatchBits.length, workMax);
+        assertArrayEquals(baseFile, readAllBytes(dir.resolve("2.jar")));
+        assertEquals(2, summary.highestVersion);
+    }
+
+    @Test
+    public void streamsFirstPatch() throws Exception {
+        Path working = dir.resolve("working");
+        createDirectory(working);
+        byte[] baseFile = new byte[2048];
+        Arrays.fill(baseFile, (byte) 1);
+        Path baseJar = working.resolve("1.jar");
+        write(baseJar, baseFile, CREATE_NEW);
+        baseFile[0] = 2;
+        Path jar2 = working.resolve("2.jar");
+        write(jar2, baseFile, CREATE_NEW);
+        baseFile[0] = 3;
+        Path jar3 = working.resolve("3.jar");
+        write(jar3, baseFile, CREATE_NEW);
+        DeltaCalculator.process(working.toAbsolutePath(), working.toAbsolutePath(), -1);
+        byte[] bpatch1bits = readAllBytes(working.resolve("2.jar.bpatch"));
+        byte[] bpatch2bits = readAllBytes(working.resolve("3.jar.bpatch"));
+        paths.put("/2.jar.bpatch", bpatch1bits);
+        paths.put("/3.jar.bpatch", bpatch2bits);
+        configureIndex(sha256(readAllBytes(baseJar)), sha256(bpatch1bits), sha256(readAllBytes(jar2)),
+                       sha256(readAllBytes(jar2)), sha256(bpatch2bits), sha256(readAllBytes(jar3)));
+        updater = new TestUpdater(indexURL, "UnitTest", dir, baseJar);
+        UpdateSummary summary = updater.call();
+        assertEquals(3, summary.highestVersion);
+        assertArrayEquals(baseFile, readAllBytes(dir.resolve("3.jar")));
+        // The first patch was applied as it arrived. The second had to wait for 2.jar, so was saved.
+        assertFalse(exists(dir.resolve("tmp").resolve("2.jar.bpatch")));
+        assertTrue(exists(dir.resolve("tmp").resolve("3.jar.bpatch")));
+    }
+
+    @Test
+    public void badStreamedPatchLeavesNoJar() throws Exception {
+        Path working = dir.resolve("working");
+        createDirectory(working);
+        byte[] baseFile = new byte[2048];
+        Arrays.fill(baseFile, (byte) 1);
+        Path baseJar = working.resolve("1.jar");
+        write(baseJar, baseFile, CREATE_NEW);
+        baseFile[0] = 2;
+        Path jar2 = working.resolve("2.jar");
+        write(jar2, baseFile, CREATE_NEW);
+        DeltaCalculator.process(working.toAbsolutePath(), working.toAbsolutePath(), -1);
+        byte[] bpatchBits = readAllBytes(working.resolve("2.jar.bpatch"));
+        configureIndex(sha256(readAllBytes(baseJar)), sha256(bpatchBits), sha256(readAllBytes(jar2)));
+        // Damaged on the way: it may or may not still be a valid patch, but either way the result isn't installed.
+        bpatchBits[bpatchBits.length / 2]++;
+        paths.put("/2.jar.bpatch", bpatchBits);
+        updater = new TestUpdater(indexURL, "UnitTest", dir, baseJar);
+        try {
+            updater.call();
+            fail();
+        } catch (Updater.Ex.BadUpdateHash e) {
+            // Expected.
+        }
+        assertFalse(exists(dir.resolve("2.jar")));
+        assertFalse(exists(dir.resolve("tmp").resolve("2.jar")));
+        // The mirror that sent it isn't rated any better for it, and failed both times it was tried.
+        Properties stats = new Properties();
+        try (InputStream stream = newInputStream(dir.resolve(MirrorStats.FILE_NAME))) {
+            stats.load(stream);
+        }
+        assertEquals(0.0, Double.parseDouble(stats.getProperty("localhost:" + HTTP_LOCAL_TEST_PORT + ".throughput")), 0.0);
+        assertEquals(2.0, Double.parseDouble(stats.getProperty("localhost:" + HTTP_LOCAL_TEST_PORT + ".failures")), 0.0);
+    }
+
+    @Test
+    public void resumesDroppedStream() throws Exception {
+        Path working = dir.resolve("working");
+        createDirectory(working);
+        byte[] baseFile = new byte[2048];
+        Arrays.fill(baseFile, (byte) 1);
+        Path baseJar = working.resolve("1.jar");
+        write(baseJar, baseFile, CREATE_NEW);
+        baseFile[0] = 2;
+        Path jar2 = working.resolve("2.jar");
+        write(jar2, baseFile, CREATE_NEW);
+        DeltaCalculator.process(working.toAbsolutePath(), working.toAbsolutePath(), -1);
+        byte[] bpatchBits = readAllBytes(working.resolve("2.jar.bpatch"));
+        paths.put("/2.jar.bpatch", bpatchBits);
+        configureIndex(sha256(readAllBytes(baseJar)), sha256(bpatchBits), sha256(readAllBytes(jar2)));
+        // The streamed download is cut off half way, and what arrived is kept to resume from.
+        int half = bpatchBits.length / 2;
+        dropAfter = half;
+        supportRanges = true;
+        updater = new TestUpdater(indexURL, "UnitTest", dir, baseJar);
+        UpdateSummary summary = updater.call();
+        assertEquals(Collections.singletonList("bytes=" + half + "-"), rangeRequests);
+        assertArrayEquals(baseFile, readAllBytes(dir.resolve("2.jar")));
+        assertEquals(2, summary.highestVersion);
+    }
+
+    @Test
+    public void discardsBadPartialDownload() throws Exception {
+        Path working = dir.resolve("working");
+        createDirectory(working);
+        byte[] baseFile = new byte[2048];
+        Arrays.fill(baseFile, (byte) 1);
+        Path baseJar = working.resolve("1.jar");
+        write(baseJar, baseFile, CREATE_NEW);
+        baseFile[0] = 2;
+        Path jar2 = working.resolve("2.jar");
+        write(jar2, baseFile, CREATE_NEW);
+        DeltaCalculator.process(working.toAbsolutePath(), working.toAbsolutePath(), -1);
+        byte[] bpatchBits = readAllBytes(working.resolve("2.jar.bpatch"));
+        paths.put("/2.jar.bpatch", bpatchBits);
+        configureIndex(sha256(readAllBytes(baseJar)), sha256(bpatchBits), sha256(readAllBytes(jar2)));
+        // A leftover that doesn't belong to this patch: resuming from it gives the wrong hash, so it's fetched again.
+        byte[] junk = new byte[bpatchBits.length / 2];
+        Arrays.fill(junk, (byte) 0x42);
+        createDirectory(dir.resolve("tmp"));
+        write(dir.resolve("tmp").resolve("2.jar.bpatch"), junk, CREATE_NEW);
+        supportRanges = true;
+        updater = new TestUpdater(indexURL, "UnitTest", dir, baseJar);
+        UpdateSummary summary = updater.call();
+        assertEquals(1, rangeRequests.size());
+        assertArrayEquals(baseFile, readAllBytes(dir.resolve("2.jar")));
+        assertEquals(2, summary.highestVersion);
+    }
+
+    @Test
+    public void restartsWhenRangeRefused() throws Exception {
+        Path working = dir.resolve("working");
+        createDirectory(working);
+        byte[] baseFile = new byte[2048];
+        Arrays.fill(baseFile, (byte) 1);
+        Path baseJar = working.resolve("1.jar");
+        write(baseJar, baseFile, CREATE_NEW);
+        baseFile[0] = 2;
+        Path jar2 = working.resolve("2.jar");
+        write(jar2, baseFile, CREATE_NEW);
+        DeltaCalculator.process(working.toAbsolutePath(), working.toAbsolutePath(), -1);
+        byte[] bpatchBits = readAllBytes(working.resolve("2.jar.bpatch"));
+        paths.put("/2.jar.bpatch", bpatchBits);
+        configureIndex(sha256(readAllBytes(baseJar)), sha256(bpatchBits), sha256(readAllBytes(jar2)));
+        createDirectory(dir.resolve("tmp"));
+        write(dir.resolve("tmp").resolve("2.jar.bpatch"), Arrays.copyOf(bpatchBits, bpatchBits.length / 2), CREATE_NEW);
+        // The server won't do ranges and says so with an error, so the refused connection is dropped and it starts over.
+        rangeRefusal = 416;
+        updater = new TestUpdater(indexURL, "UnitTest", dir, baseJar);
+        UpdateSummary summary = updater.call();
+        assertEquals(1, rangeRequests.size());
+        assertArrayEquals(baseFile, readAllBytes(dir.resolve("2.jar")));
+        assertEquals(2, summary.highestVersion);
+    }
+
+    @Test
+    public void failsOverToNextMirror() throws Exception {
+        Path working = dir.resolve("working");
+        createDirectory(working);
+        byte[] baseFile = new byte[2048];
+        Arrays.fill(baseFile, (byte) 1);
+        Path baseJar = working.resolve("1.jar");
+        write(baseJar, baseFile, CREATE_NEW);
+        baseFile[0] = 2;
+        Path jar2 = working.resolve("2.jar");
+        write(jar2, baseFile, CREATE_NEW);
+        DeltaCalculator.process(working.toAbsolutePath(), working.toAbsolutePath(), -1);
+        byte[] bpatchBits = readAllBytes(working.resolve("2.jar.bpatch"));
+        paths.put("/2.jar.bpatch", bpatchBits);
+        // Nothing listens on the dead mirror, but past runs found it to be much faster so it's tried first.
+        deadMirror = "http://localhost:" + (HTTP_LOCAL_TEST_PORT + 1);
+        Properties stats = new Properties();
+        stats.setProperty("localhost:" + (HTTP_LOCAL_TEST_PORT + 1) + ".throughput", "1000000000");
+        stats.setProperty("localhost:" + HTTP_LOCAL_TEST_PORT + ".throughput", "1000");
+        try (OutputStream stream = newOutputStream(dir.resolve(MirrorStats.FILE_NAME))) {
+            stats.store(stream, null);
+        }
+        configureIndex(sha256(readAllBytes(baseJar)), sha256(bpatchBits), sha256(readAllBytes(jar2)));
+        updater = new TestUpdater(indexURL, "UnitTest", dir, baseJar);
+        UpdateSummary summary = updater.call();
+        assertArrayEquals(baseFile, readAllBytes(dir.resolve("2.jar")));
+        assertEquals(2, summary.highestVersion);
+        // The failure was remembered for next time.
+        try (InputStream stream = newInputStream(dir.resolve(MirrorStats.FILE_NAME))) {
+            stats.load(stream);
+        }
+        assertEquals(1.0, Double.parseDouble(stats.getProperty("localhost:" + (HTTP_LOCAL_TEST_PORT + 1) + ".failures")), 0.0);
+    }
+
+    private void skipsMirrorWithBadPatch(boolean resume) throws Exception {
+        Path working = dir.resolve("working");
+        createDirectory(working);
+        byte[] baseFile = new byte[2048];
+        Arrays.fill(baseFile, (byte) 1);
+        Path baseJar = working.resolve("1.jar");
+        write(baseJar, baseFile, CREATE_NEW);
+        baseFile[0] = 2;
+        Path jar2 = working.resolve("2.jar");
+        write(jar2, baseFile, CREATE_NEW);
+        DeltaCalculator.process(working.toAbsolutePath(), working.toAbsolutePath(), -1);
+        byte[] bpatchBits = readAllBytes(working.resolve("2.jar.bpatch"));
+        paths.put("/2.jar.bpatch", bpatchBits);
+        // This mirror is listed first and past runs found it to be much faster, but it serves a damaged patch.
+        byte[] badBits = bpatchBits.clone();
+        badBits[badBits.length / 2]++;
+        badServer = HttpServer.create(new InetSocketAddress("localhost", HTTP_LOCAL_TEST_PORT + 2), 100);
+        badServer.createContext(SERVER_PATH, exchange -> {
+            exchange.sendResponseHeaders(HTTP_OK, badBits.length);
+            exchange.getResponseBody().write(badBits);
+            exchange.getResponseBody().close();
+        });
+        badServer.start();
+        deadMirror = "http://localhost:" + (HTTP_LOCAL_TEST_PORT + 2);
+        Properties stats = new Properties();
+        stats.setProperty("localhost:" + (HTTP_LOCAL_TEST_PORT + 2) + ".throughput", "1000000000");
+        stats.setProperty("localhost:" + HTTP_LOCAL_TEST_PORT + ".throughput", "1000");
+        try (OutputStream stream = newOutputStream(dir.resolve(MirrorStats.FILE_NAME))) {
+            stats.store(stream, null);
+        }
+        if (resume) {
+            // Half of it is left over from an earlier run, so it's not streamed but downloaded and then applied.
+            createDirectory(dir.resolve("tmp"));
+            write(dir.resolve("tmp").resolve("2.jar.bpatch"), Arrays.copyOf(bpatchBits, bpatchBits.length / 2), CREATE_NEW);
+            supportRanges = true;
+        }
+        configureIndex(sha256(readAllBytes(baseJar)), sha256(bpatchBits), sha256(readAllBytes(jar2)));
+        updater = new TestUpdater(indexURL, "UnitTest", dir, baseJar);
+        UpdateSummary summary = updater.call();
+        assertArrayEquals(baseFile, readAllBytes(dir.resolve("2.jar")));
+        assertEquals(2, summary.highestVersion);
+        // The bad mirror counts as failed and is rated no better than before.
+        try (InputStream stream = newInputStream(dir.resolve(MirrorStats.FILE_NAME))) {
+            stats.load(stream);
+        }
+        assertEquals(1.0, Double.parseDouble(stats.getProperty("localhost:" + (HTTP_LOCAL_TEST_PORT + 2) + ".failures")), 0.0);
+        assertEquals(1e9, Double.parseDouble(stats.getProperty("localhost:" + (HTTP_LOCAL_TEST_PORT + 2) + ".throughput")), 0.0);
+        assertNotEquals(1000.0, Double.parseDouble(stats.getProperty("localhost:" + HTTP_LOCAL_TEST_PORT + ".throughput")), 0.0);
+    }
+
+    @Test
+    public void skipsMirrorWithBadPatch() throws Exception {
+        skipsMirrorWithBadPatch(true);
+    }
+
+    @Test
+    public void skipsMirrorWithBadStreamedPatch() throws Exception {
+        skipsMirrorWithBadPatch(false);
+    }
+
+    private UFXProtocol.Update.Builder patchEntry(DeltaCalculator.Result patch, int version) throws IOException {
+        String serverPath = "/" + patch.path.getFileName();
+        byte[] bits = readAllBytes(patch.path);
+        paths.put(serverPath, bits);
+        UFXProtocol.Update.Builder update = UFXProtocol.Update.newBuilder();
+        update.setVersion(version);
+        update.addUrls("http://localhost:" + HTTP_LOCAL_TEST_PORT + SERVER_PATH + serverPath);
+        update.setPreHash(ByteString.copyFrom(patch.preHash));
+        update.setPatchHash(ByteString.copyFrom(patch.patchHash));
+        update.setPostHash(ByteString.copyFrom(patch.postHash));
+        update.setPatchSize(bits.length);
+        update.setGzipped(true);
+        return update;
+    }
+
+    /** Writes 1.jar to 3.jar where 3.jar brings back most of 1.jar, which 2.jar dropped. */
+    private List<DeltaCalculator.Result> multiSourcePatches(Path working, UFXProtocol.Updates.Builder updates) throws IOException {
+        byte[] jar1 = new byte[8192];
+        new Random(1).nextBytes(jar1);
+        byte[] jar2 = new byte[8192];
+        new Random(2).nextBytes(jar2);
+        byte[] jar3 = jar1.clone();
+        jar3[100]++;
+        write(working.resolve("1.jar"), jar1, CREATE_NEW);
+        write(working.resolve("2.jar"), jar2, CREATE_NEW);
+        write(working.resolve("3.jar"), jar3, CREATE_NEW);
+        DeltaCalculator.Options options = new DeltaCalculator.Options();
+        options.extraSources = 1;
+        List<DeltaCalculator.Result> patches = DeltaCalculator.process(working, working, options);
+        assertNull(patches.get(0).multiSource);
+        DeltaCalculator.Result multi = patches.get(1).multiSource;
+        assertEquals(Arrays.asList(working.resolve("2.jar"), working.resolve("1.jar")), multi.sources);
+        assertTrue(multi.patchSize < patches.get(1).patchSize);
+        updates.setVersion(1);
+        updates.addUpdates(patchEntry(patches.get(0), 2));
+        updates.addUpdates(patchEntry(patches.get(1), 3));
+        updates.addMultiSourceUpdates(patchEntry(multi, 3).addSourceVersions(2).addSourceVersions(1));
+        return patches;
+    }
+
+    @Test
+    public void multiSourceUpdateRun() throws Exception {
+        Path working = dir.resolve("working");
+        createDirectory(working);
+        UFXProtocol.Updates.Builder updates = UFXProtocol.Updates.newBuilder();
+        multiSourcePatches(working, updates);
+        // We start from 1.jar so will have it to hand, and the normal patch for 3 isn't even there.
+        paths.remove("/3.jar.bpatch");
+        paths.put("/index", signIndex(updates).build().toByteArray());
+        updater = new TestUpdater(indexURL, "UnitTest", dir, working.resolve("1.jar"));
+        UpdateSummary summary = updater.call();
+        assertArrayEquals(readAllBytes(working.resolve("3.jar")), readAllBytes(dir.resolve("3.jar")));
+        assertEquals(3, summary.highestVersion);
+    }
+
+    @Test
+    public void multiSourceNeedsAllSources() throws Exception {
+        Path working = dir.resolve("working");
+        createDirectory(working);
+        UFXProtocol.Updates.Builder updates = UFXProtocol.Updates.newBuilder();
+        multiSourcePatches(working, updates);
+        // Installed at version 2, so there's no 1.jar to copy from and the normal patch must be used.
+        paths.remove("/3.jar.multi.bpatch");
+        paths.put("/index", signIndex(updates).build().toByteArray());
+        updater = new TestUpdater(indexURL, "UnitTest", dir, working.resolve("2.jar"));
+        UpdateSummary summary = updater.call();
+        assertArrayEquals(readAllBytes(working.resolve("3.jar")), readAllBytes(dir.resolve("3.jar")));
+        assertEquals(3, summary.highestVersion);
+    }
+
+    @Test
+    public void multiSourceFallsBack() throws Exception {
+        Path working = dir.resolve("working");
+        createDirectory(working);
+        UFXProtocol.Updates.Builder updates = UFXProtocol.Updates.newBuilder();
+        multiSourcePatches(working, updates);
+        paths.put("/index", signIndex(updates).build().toByteArray());
+        // The app is at version 2 but there is a damaged 1.jar left over, so the multi source patch can't work.
+        write(dir.resolve("1.jar"), new byte[8192], CREATE_NEW);
+        updater = new TestUpdater(indexURL, "UnitTest", dir, working.resolve("2.jar"));
+        UpdateSummary summary = updater.call();
+        assertArrayEquals(readAllBytes(working.resolve("3.jar")), readAllBytes(dir.resolve("3.jar")));
+        assertEquals(3, summary.highestVersion);
+    }
+
+    @Test
+    public void parallelPatchRun() throws Exception {
+        Path working = dir.resolve("working");
+        createDirectory(working);
+        byte[] jar1 = new byte[200000];
+        new Random(1).nextBytes(jar1);
+        byte[] jar2 = jar1.clone();
+        for (int i = 0; i < jar2.length; i += 10000)
+            jar2[i]++;
+        write(working.resolve("1.jar"), jar1, CREATE_NEW);
+        write(working.resolve("2.jar"), jar2, CREATE_NEW);
+        DeltaCalculator.Options options = new DeltaCalculator.Options(Integer.MAX_VALUE);
+        options.indexInterval = 16 * 1024;
+        List<DeltaCalculator.Result> patches = DeltaCalculator.process(working, working, options);
+        UFXProtocol.Updates.Builder updates = UFXProtocol.Updates.newBuilder();
+        updates.setVersion(1);
+        assertTrue(GDiffIndex.read(patches.get(0).path.toFile()).size() > 1);
+        updates.addUpdates(patchEntry(patches.get(0), 2).setGzipped(false));
+        paths.put("/index", signIndex(updates).build().toByteArray());
+        updater = new TestUpdater(indexURL, "UnitTest", dir, working.resolve("1.jar"));
+        updater.setPatchParallelism(4);
+        UpdateSummary summary = updater.call();
+        assertEquals(2, summary.highestVersion);
+        assertArrayEquals(jar2, readAllBytes(dir.resolve("2.jar")));
+        // Saved first rather than streamed, so the parts could be read out of order.
+        assertTrue(exists(dir.resolve("tmp").resolve("2.jar.bpatch")));
+    }
+
+    @Test
+    public void parallelScanPatch() throws Exception {
+        // The target is read by the parallel scan itself, so its post hash has to come from the file.
+        Path working = dir.resolve("working");
+        createDirectory(working);
+        byte[] jar1 = new byte[200000];
+        new Random(1).nextBytes(jar1);
+        byte[] jar2 = jar1.clone();
+        for (int i = 0; i < jar2.length; i += 10000)
+            jar2[i]++;
+        write(working.resolve("1.jar"), jar1, CREATE_NEW);
+        write(working.resolve("2.jar"), jar2, CREATE_NEW);
+        DeltaCalculator.Options options = new DeltaCalculator.Options();
+        options.scanThreads = 2;
+        List<DeltaCalculator.Result> patches = DeltaCalculator.process(working, working, options);
+        assertArrayEquals(sha256(jar2), patches.get(0).postHash);
+        UFXProtocol.Updates.Builder updates = UFXProtocol.Updates.newBuilder();
+        updates.setVersion(1);
+        updates.addUpdates(patchEntry(patches.get(0), 2));
+        paths.put("/index", signIndex(updates).build().toByteArray());
+        updater = new TestUpdater(indexURL, "UnitTest", dir, working.resolve("1.jar"));
+        UpdateSummary summary = updater.call();
+        assertEquals(2, summary.highestVersion);
+        assertArrayEquals(jar2, readAllBytes(dir.resolve("2.jar")));
+    }
+
     @Test
     public void testBaseURLOverride() throws Exception {
         indexURL = URI.create("https://www.example.com/updates/index");
@@ -4,16 +4,45 @@ import com.google.common.io.ByteStreams
 import java.io.*
 import java.nio.file.*
 import java.nio.file.attribute.FileTime
+import java.util.*
+import java.util.concurrent.*
 import java.util.zip.*
 
 /**
  * Rewrites the given zip file so all file timestamps are zeroed out and compression is removed. This format is better
- * for delta calculation.
+ * for delta calculation. Optionally entries are also put in a canonical order, so two builds of the same code come out
+ * identical whatever order the build tool happened to add files in.
  */
 public class ProcessZIP {
     companion object {
-        public fun process(zipPath: Path, destPath: Path) {
-            val zeroTime = FileTime.fromMillis(0)
+        private val zeroTime = FileTime.fromMillis(0)
+
+        /** The manifest has to stay at the start, where JarInputStream looks for it. Everything else goes by name. */
+        private val canonicalOrder = Comparator<ZipEntry> { a, b ->
+            val byRank = rank(a.name).compareTo(rank(b.name))
+            if (byRank != 0) byRank else a.name.compareTo(b.name)
+        }
+
+        private fun rank(name: String) = when (name.toUpperCase(Locale.ROOT)) {
+            "META-INF/" -> 0
+            "META-INF/MANIFEST.MF" -> 1
+            else -> 2
+        }
+
+        /**
+         * Processes [zipPath] into [destPath]. Canonical ordering changes the bytes of a jar the old format already
+         * processed, and so the hashes clients check, so it must only be used for versions that were never released.
+         */
+        public fun process(zipPath: Path, destPath: Path, canonical: Boolean = false,
+                           threads: Int = Runtime.getRuntime().availableProcessors()) {
+            if (canonical)
+                processCanonical(zipPath, destPath, threads)
+            else
+                processInOrder(zipPath, destPath)
+        }
+
+        /** Keeps the entries in the order they came in. A zeroed timestamp on the first entry means already processed. */
+        private fun processInOrder(zipPath: Path, destPath: Path) {
             val outPath = Files.createTempFile("processzip", null)
 
             var skipped = false
@@ -43,10 +72,77 @@ public class ProcessZIP {
                     }
                 }
             }
-            if (!skipped)
+            if (!skipped) {
                 Files.move(outPath, destPath, StandardCopyOption.REPLACE_EXISTING)
-            else
+            } else {
+                Files.delete(outPath)
                 Files.copy(zipPath, destPath, StandardCopyOption.REPLACE_EXISTING)
+            }
+        }
+
+        private fun processCanonical(zipPath: Path, destPath: Path, threads: Int) {
+            ZipFile(zipPath.toFile()).use { zip ->
+                val entries = Collections.list(zip.entries())
+                val sorted = entries.sortedWith(canonicalOrder)
+                // Skip if already processed.
+                if (entries == sorted && entries.all { isProcessed(it) }) {
+                    Files.copy(zipPath, destPath, StandardCopyOption.REPLACE_EXISTING)
+                    return
+                }
+                System.out.println("Processing " + zipPath)
+                val outPath = Files.createTempFile("processzip", null)
+                val poolSize = Math.max(1, threads)
+                val executor = Executors.newFixedThreadPool(poolSize)
+                try {
+                    ZipOutputStream(BufferedOutputStream(Files.newOutputStream(outPath))).use { output ->
+                        output.setMethod(ZipOutputStream.STORED)  // No compression.
+                        // Inflating is the slow part, so entries are read ahead on the pool while earlier ones are
+                        // written out in order. The window bounds how many are held in memory at once.
+                        val pending = ArrayDeque<Future<Pair<ZipEntry, ByteArray>>>()
+                        var next = 0
+                        while (next < sorted.size || pending.isNotEmpty()) {
+                            while (next < sorted.size && pending.size < poolSize * 4) {
+                                val entry = sorted[next++]
+                                pending.add(executor.submit(Callable { read(zip, entry) }))
+                            }
+                            val (entry, bits) = get(pending.removeFirst())
+                            output.putNextEntry(entry)
+                            output.write(bits)
+                            output.closeEntry()
+                        }
+                    }
+                } finally {
+                    executor.shutdownNow()
+                }
+                Files.move(outPath, destPath, StandardCopyOption.REPLACE_EXISTING)
+            }
+        }
+
+        private fun isProcessed(entry: ZipEntry) =
+                entry.method == ZipEntry.STORED && entry.lastModifiedTime?.toMillis() == 0L
+
+        /** Inflates the entry and returns it with a fresh header, so no extra fields or comments carry build noise. */
+        private fun read(zip: ZipFile, original: ZipEntry): Pair<ZipEntry, ByteArray> {
+            val bits = zip.getInputStream(original).use { ByteStreams.toByteArray(it) }
+            val crc = CRC32()
+            crc.update(bits)
+            val entry = ZipEntry(original.name)
+            entry.setLastModifiedTime(zeroTime)
+            entry.setCreationTime(zeroTime)
+            // Stored entries need their size and CRC up front, then no data descriptor is written after them.
+            entry.method = ZipEntry.STORED
+            entry.size = bits.size.toLong()
+            entry.compressedSize = bits.size.toLong()
+            entry.crc = crc.value
+            return Pair(entry, bits)
+        }
+
+        private fun <T> get(future: Future<T>): T {
+            try {
+                return future.get()
+            } catch (e: ExecutionException) {
+                throw e.cause ?: e
+            }
         }
     }
 }
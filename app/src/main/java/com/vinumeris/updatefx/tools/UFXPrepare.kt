@@ -2,6 +2,8 @@ package com.vinumeris.updatefx.tools
 
 import com.google.common.io.BaseEncoding
 import com.google.protobuf.ByteString
+import com.nothome.delta.Delta
+import com.nothome.delta.MatchStrategy
 import com.vinumeris.updatefx.DeltaCalculator
 import com.vinumeris.updatefx.UFXProtocol
 import com.vinumeris.updatefx.Utils
@@ -62,6 +64,18 @@ public class UFXPrepare {
                 if (update != updates.updatesList.last())
                     println("----------")
             }
+
+            if (updates.multiSourceUpdatesCount > 0) {
+                println()
+                println("${updates.multiSourceUpdatesCount} multi source alternatives defined:")
+                println()
+                for (update in updates.multiSourceUpdatesList) {
+                    println("Update ${update.version} (${update.patchSize} bytes) from versions ${update.sourceVersionsList.joinToString(", ")}")
+                    for (url in update.urlsList) {
+                        println("  $url")
+                    }
+                }
+            }
         }
 
         @JvmStatic
@@ -76,6 +90,24 @@ public class UFXPrepare {
             val changePassword = parser.accepts("change-password")
             val trezor = parser.accepts("trezor").withOptionalArg()
             val onlyVer = parser.accepts("ver").withRequiredArg().ofType(Int::class.java)
+            // How to pick between source blocks with the same checksum: "first" (fast) or "longest" (smaller patches).
+            val matchStr = parser.accepts("match").withRequiredArg().defaultsTo("first")
+            val chunkSizeStr = parser.accepts("chunk-size").withRequiredArg().defaultsTo(Delta.DEFAULT_CHUNK_SIZE.toString())
+            // How many patches to calculate in parallel. Each one needs an index of its source jar in memory.
+            val threadsStr = parser.accepts("threads").withRequiredArg().defaultsTo("1")
+            // How many threads scan each new jar against the index of the old one. Shares the one index.
+            val scanThreadsStr = parser.accepts("scan-threads").withRequiredArg().defaultsTo("1")
+            // Don't reuse patches from the cache directory, recalculate everything.
+            val noCache = parser.accepts("no-cache")
+            // How many versions before the previous one a multi source patch may also copy from. 0 means none are made.
+            val extraSourcesStr = parser.accepts("extra-sources").withRequiredArg().defaultsTo("0")
+            // Diff jars entry by entry, only looking inside the entries that changed. Much faster, slightly bigger patches.
+            val entryAware = parser.accepts("entry-aware")
+            // Index patches that aren't gzipped every this many MB of output, so clients can apply them on several threads.
+            val indexMbStr = parser.accepts("index-mb").withRequiredArg().defaultsTo("0")
+            // If set, which version to start sorting jar entries into a canonical order from. Never set it at or below
+            // a version that was already released, that would change its hash under the feet of installed clients.
+            val canonicalFromStr = parser.accepts("canonical-from").withRequiredArg().ofType(Int::class.java)
             val options = parser.parse(*args)
 
             if (options.has("debuglog")) {
@@ -101,6 +133,15 @@ public class UFXPrepare {
             }
 
             val gzipFrom = gzipFromStr.value(options).toInt()
+            val canonicalFrom = if (options.has(canonicalFromStr)) options.valueOf(canonicalFromStr) else Int.MAX_VALUE
+            val deltaOptions = DeltaCalculator.Options(gzipFrom)
+            deltaOptions.chunkSize = chunkSizeStr.value(options).toInt()
+            deltaOptions.matchStrategy = MatchStrategy.valueOf(matchStr.value(options).toUpperCase())
+            deltaOptions.threads = threadsStr.value(options).toInt()
+            deltaOptions.scanThreads = scanThreadsStr.value(options).toInt()
+            deltaOptions.extraSources = extraSourcesStr.value(options).toInt()
+            deltaOptions.entryAware = options.has(entryAware)
+            deltaOptions.indexInterval = indexMbStr.value(options).toLong() * 1024 * 1024
             val working = Paths.get(options.nonOptionArguments().get(0) as String)
 
             if (options.valuesOf(url).isEmpty()) {
@@ -108,6 +149,10 @@ public class UFXPrepare {
                 return
             }
 
+            // Patches for pairs of jars we've seen before are reused from here, so only new versions cost a delta.
+            if (!options.has(noCache))
+                deltaOptions.cacheDir = working.resolve("cache")
+
             val builds = working.resolve("builds")
             if (!Files.isDirectory(builds)) {
                 println("Working directory must have a builds subdirectory.")
@@ -147,11 +192,11 @@ public class UFXPrepare {
                     println("Could not find $path")
                     return
                 }
-                processBuild(path, gzipFrom, descriptions, strippedZipsDir, warnings)
+                processBuild(path, gzipFrom, canonicalFrom, descriptions, strippedZipsDir, warnings)
             } else {
                 for (path in Utils.listDir(builds)) {
                     if (Files.isRegularFile(path) && path.toString().endsWith(".jar")) {
-                        processBuild(path, gzipFrom, descriptions, strippedZipsDir, warnings)
+                        processBuild(path, gzipFrom, canonicalFrom, descriptions, strippedZipsDir, warnings)
                     }
                 }
             }
@@ -160,22 +205,28 @@ public class UFXPrepare {
             if (options.has(onlyVer)) {
                 val oldIndex = UFXProtocol.SignedUpdates.parseFrom(site.resolve("index").toFile().readBytes())
                 val v = options.valueOf(onlyVer)
-                val cur = strippedZipsDir.resolve("$v.jar")
-                val prev = strippedZipsDir.resolve("${v - 1}.jar")
-                val patch = DeltaCalculator.processFile(prev, cur, site.toAbsolutePath(), v, gzipFrom)
+                val patch = DeltaCalculator.processVersion(strippedZipsDir, site.toAbsolutePath(), v, deltaOptions)
                 val oldUpdates = UFXProtocol.Updates.parseFrom(oldIndex.updates).toBuilder()
                 for (update in oldUpdates.updatesList) {
                     if (update.version != v)
                         index.addUpdates(update)
                 }
+                for (update in oldUpdates.multiSourceUpdatesList) {
+                    if (update.version != v)
+                        index.addMultiSourceUpdates(update)
+                }
                 index.addUpdates(patchToProto(descriptions, gzipFrom, patch, url.values(options)))
+                if (patch.multiSource != null)
+                    index.addMultiSourceUpdates(patchToProto(descriptions, gzipFrom, patch.multiSource, url.values(options)))
             } else {
                 // Generate the patch files.
-                val patches = DeltaCalculator.process(strippedZipsDir.toAbsolutePath(), site.toAbsolutePath(), gzipFrom)
+                val patches = DeltaCalculator.process(strippedZipsDir.toAbsolutePath(), site.toAbsolutePath(), deltaOptions)
                 // Build an index.
                 for (patch in patches) {
                     val proto = patchToProto(descriptions, gzipFrom, patch, url.values(options))
                     index.addUpdates(proto)
+                    if (patch.multiSource != null)
+                        index.addMultiSourceUpdates(patchToProto(descriptions, gzipFrom, patch.multiSource, url.values(options)))
                 }
             }
             // Sign it.
@@ -238,7 +289,8 @@ public class UFXPrepare {
 
         private fun patchToProto(descriptions: HashMap<Int, UFXProtocol.UpdateDescription>, gzipFrom: Int, patch: DeltaCalculator.Result, urls: List<String>): UFXProtocol.Update.Builder {
             val update = UFXProtocol.Update.newBuilder()
-            val num = Integer.parseInt(patch.path.fileName.toString().replace("\\.jar\\.bpatch".toRegex(), ""))
+            val fileName = patch.path.fileName.toString()
+            val num = Integer.parseInt(fileName.replace("\\.jar(\\.multi)?\\.bpatch".toRegex(), ""))
             update.setVersion(num)
             update.setPatchSize(patch.patchSize)
             update.setPreHash(ByteString.copyFrom(patch.preHash))
@@ -247,13 +299,17 @@ public class UFXPrepare {
             update.setGzipped(num >= gzipFrom)
             for (baseURL in urls) {
                 try {
-                    val uri = URI((if (baseURL.endsWith("/")) baseURL else baseURL.concat("/")) + num + ".jar.bpatch")
+                    val uri = URI((if (baseURL.endsWith("/")) baseURL else baseURL.concat("/")) + fileName)
                     update.addUrls(uri.toString())
                 } catch (e: URISyntaxException) {
                     println("Base URL is malformed: $baseURL")
                     throw e
                 }
             }
+            if (patch.sources.size > 1) {
+                for (source in patch.sources)
+                    update.addSourceVersions(source.fileName.toString().replace(".jar", "").toInt())
+            }
             val desc = descriptions.get(num)
             if (desc != null)
                 update.addDescription(desc)
@@ -288,12 +344,12 @@ public class UFXPrepare {
             return String(c.readPassword("Enter signing key password: "))
         }
 
-        private fun processBuild(path: Path, gzipFrom: Int, descriptions: HashMap<Int, UFXProtocol.UpdateDescription>, strippedZipsDir: Path, warnings: MutableList<String>) {
+        private fun processBuild(path: Path, gzipFrom: Int, canonicalFrom: Int, descriptions: HashMap<Int, UFXProtocol.UpdateDescription>, strippedZipsDir: Path, warnings: MutableList<String>) {
             val v = path.fileName.toString().replace(".jar", "").toInt()
             val processed = strippedZipsDir.resolve(path.fileName)
             Files.deleteIfExists(processed)
             if (v >= gzipFrom)
-                ProcessZIP.process(path, processed)
+                ProcessZIP.process(path, processed, v >= canonicalFrom)
             else
                 Files.copy(path, processed)
             val jar = JarFile(processed.toFile())
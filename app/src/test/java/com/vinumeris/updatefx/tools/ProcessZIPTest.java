@@ -0,0 +1,91 @@
+package com.vinumeris.updatefx.tools;
+
+import org.junit.*;
+import org.junit.rules.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.*;
+
+import static org.junit.Assert.*;
+
+public class ProcessZIPTest {
+    @Rule public TemporaryFolder tmpDir = new TemporaryFolder();
+
+    private static final List<String> NAMES = Arrays.asList("META-INF/MANIFEST.MF", "com/example/B.class",
+            "update-description.txt", "com/example/A.class");
+
+    // Like a build tool writes them: compressed, timestamped and in no particular order.
+    private Path writeBuild(String name) throws IOException {
+        return writeBuild(name, NAMES);
+    }
+
+    private Path writeBuild(String name, List<String> names) throws IOException {
+        Path path = tmpDir.newFile(name).toPath();
+        Random random = new Random(1);
+        try (ZipOutputStream zip = new ZipOutputStream(Files.newOutputStream(path))) {
+            for (String entryName : names) {
+                ZipEntry entry = new ZipEntry(entryName);
+                entry.setTime(1400000000000L);
+                zip.putNextEntry(entry);
+                byte[] bits = new byte[1000];
+                random.nextBytes(bits);
+                zip.write(bits);
+                zip.closeEntry();
+            }
+        }
+        return path;
+    }
+
+    private List<String> entryNames(Path path) throws IOException {
+        List<String> names = new ArrayList<>();
+        try (ZipInputStream zip = new ZipInputStream(Files.newInputStream(path))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null)
+                names.add(entry.getName());
+        }
+        return names;
+    }
+
+    @Test
+    public void previouslyProcessedJarIsUntouched() throws Exception {
+        Path build = writeBuild("1.jar");
+        Path processed = tmpDir.getRoot().toPath().resolve("processed.jar");
+        ProcessZIP.Companion.process(build, processed, false, 1);
+        assertEquals(NAMES, entryNames(processed));
+
+        // A released jar comes through the next run byte for byte, so its hash still matches what clients hold.
+        Path again = tmpDir.getRoot().toPath().resolve("again.jar");
+        ProcessZIP.Companion.process(processed, again, false, 1);
+        assertArrayEquals(Files.readAllBytes(processed), Files.readAllBytes(again));
+    }
+
+    @Test
+    public void canonicalOrder() throws Exception {
+        Path build = writeBuild("2.jar");
+        Path processed = tmpDir.getRoot().toPath().resolve("processed.jar");
+        ProcessZIP.Companion.process(build, processed, true, 2);
+        assertEquals(Arrays.asList("META-INF/MANIFEST.MF", "com/example/A.class", "com/example/B.class",
+                "update-description.txt"), entryNames(processed));
+
+        Path again = tmpDir.getRoot().toPath().resolve("again.jar");
+        ProcessZIP.Companion.process(processed, again, true, 2);
+        assertArrayEquals(Files.readAllBytes(processed), Files.readAllBytes(again));
+    }
+
+    @Test
+    public void canonicalOrderIgnoresLocale() throws Exception {
+        // In Turkish, "i" upper cases to a dotted capital I, which must not stop the manifest being recognised.
+        Path build = writeBuild("3.jar", Arrays.asList("a.class", "meta-inf/manifest.mf"));
+        Locale locale = Locale.getDefault();
+        Locale.setDefault(new Locale("tr", "TR"));
+        try {
+            Path processed = tmpDir.getRoot().toPath().resolve("processed.jar");
+            ProcessZIP.Companion.process(build, processed, true, 1);
+            assertEquals(Arrays.asList("meta-inf/manifest.mf", "a.class"), entryNames(processed));
+        } finally {
+            Locale.setDefault(locale);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.vinumeris.updatefx.benchmarks;
+
+import com.google.common.io.ByteStreams;
+import com.nothome.delta.Delta;
+import com.nothome.delta.GDiffWriter;
+import com.nothome.delta.RollingHash;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link Delta#compute(java.io.File, java.io.File, com.nothome.delta.DiffWriter)}, the work UFXPrepare
+ * does for every release, on one thread and on every core. The patch is encoded but discarded so disk speed doesn't
+ * pollute the result.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class DeltaBenchmark {
+    @Param({"synthetic:10", "synthetic:200"})
+    public String pair;
+
+    @Param({"16", "64", "256"})
+    public int chunkSize;
+
+    @Param({"ADLER32", "BUZHASH64"})
+    public RollingHash hash;
+
+    private JarPair jars;
+    private long targetSize;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        jars = JarPair.load(pair);
+        targetSize = jars.targetSize();
+    }
+
+    @Benchmark
+    public void compute(Throughput throughput) throws IOException {
+        Delta delta = new Delta();
+        delta.setChunkSize(chunkSize);
+        delta.setRollingHash(hash);
+        delta.compute(jars.base.toFile(), jars.target.toFile(), new GDiffWriter(ByteStreams.nullOutputStream()));
+        throughput.add(targetSize);
+    }
+
+    @Benchmark
+    public void computeParallel(Throughput throughput) throws IOException {
+        Delta delta = new Delta();
+        delta.setChunkSize(chunkSize);
+        delta.setRollingHash(hash);
+        delta.setThreads(Runtime.getRuntime().availableProcessors());
+        delta.compute(jars.base.toFile(), jars.target.toFile(), new GDiffWriter(ByteStreams.nullOutputStream()));
+        throughput.add(targetSize);
+    }
+}
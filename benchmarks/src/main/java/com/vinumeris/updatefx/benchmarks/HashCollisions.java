@@ -0,0 +1,69 @@
+package com.vinumeris.updatefx.benchmarks;
+
+import com.google.common.io.ByteStreams;
+import com.nothome.delta.ByteBufferSeekableSource;
+import com.nothome.delta.Checksum;
+import com.nothome.delta.Delta;
+import com.nothome.delta.GDiffWriter;
+import com.nothome.delta.RollingHash;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+/**
+ * Prints, for each chunk size and {@link RollingHash}, how often a target position hits a source checksum whose
+ * block turns out not to match (a false positive that costs Delta a wasted seek and compare), along with the time
+ * taken to compute the whole patch. Takes pair specs as described in {@link JarPair}, defaulting to a synthetic
+ * 10mb pair. Wall clock times from a single run are only indicative: use {@link DeltaBenchmark} for real
+ * measurements.
+ */
+public class HashCollisions {
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0)
+            args = new String[]{"synthetic:10"};
+        for (String spec : args) {
+            JarPair jars = JarPair.load(spec);
+            byte[] base = Files.readAllBytes(jars.base);
+            byte[] target = Files.readAllBytes(jars.target);
+            System.out.println(jars + " (" + target.length / 1024 + "kb)");
+            System.out.println(String.format("%8s %10s %12s %12s %12s %10s", "chunk", "hash", "hits", "false hits", "false %", "millis"));
+            for (int chunkSize : new int[]{16, 64, 256}) {
+                for (RollingHash hash : RollingHash.values()) {
+                    Checksum checksum = new Checksum(new ByteBufferSeekableSource(base), chunkSize, false, hash);
+                    long hits = 0;
+                    long falseHits = 0;
+                    long h = target.length < chunkSize ? 0 : query(hash, target, chunkSize);
+                    for (int pos = 0; pos + chunkSize <= target.length; pos++) {
+                        if (pos > 0)
+                            h = increment(hash, h, target[pos - 1], target[pos + chunkSize - 1], chunkSize);
+                        int index = checksum.findChecksumIndex(h);
+                        if (index == -1)
+                            continue;
+                        hits++;
+                        if (!ByteBuffer.wrap(base, index * chunkSize, chunkSize).equals(ByteBuffer.wrap(target, pos, chunkSize)))
+                            falseHits++;
+                    }
+                    Delta delta = new Delta();
+                    delta.setChunkSize(chunkSize);
+                    delta.setRollingHash(hash);
+                    long start = System.nanoTime();
+                    delta.compute(jars.base.toFile(), jars.target.toFile(), new GDiffWriter(ByteStreams.nullOutputStream()));
+                    long millis = (System.nanoTime() - start) / 1000000;
+                    System.out.println(String.format("%8d %10s %12d %12d %12.2f %10d", chunkSize, hash, hits, falseHits,
+                            hits == 0 ? 0.0 : 100.0 * falseHits / hits, millis));
+                }
+            }
+            System.out.println();
+        }
+    }
+
+    private static long query(RollingHash hash, byte[] target, int chunkSize) {
+        ByteBuffer bb = ByteBuffer.wrap(target, 0, chunkSize);
+        return hash == RollingHash.BUZHASH64 ? Checksum.queryBuzhash(bb, chunkSize) : Checksum.queryChecksum(bb, chunkSize);
+    }
+
+    private static long increment(RollingHash hash, long h, byte out, byte in, int chunkSize) {
+        return hash == RollingHash.BUZHASH64 ?
+                Checksum.incrementBuzhash(h, out, in, chunkSize) : Checksum.incrementChecksum(h, out, in, chunkSize);
+    }
+}
@@ -0,0 +1,53 @@
+package com.vinumeris.updatefx.benchmarks;
+
+import com.nothome.delta.ByteBufferSeekableSource;
+import com.nothome.delta.Delta;
+import com.nothome.delta.GDiffPatcher;
+import com.nothome.delta.SeekableSource;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures patching entirely in memory, as done for small plugin jars, with the current
+ * {@link ByteBufferSeekableSource} ("bulk") against the original one byte at a time implementation ("perbyte").
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class InMemoryPatchBenchmark {
+    @Param({"synthetic:1", "synthetic:8"})
+    public String pair;
+
+    @Param({"bulk", "perbyte"})
+    public String source;
+
+    private byte[] base;
+    private byte[] patch;
+    private ByteArrayOutputStream output;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        JarPair jars = JarPair.load(pair);
+        base = Files.readAllBytes(jars.base);
+        byte[] target = Files.readAllBytes(jars.target);
+        patch = new Delta().compute(base, target);
+        output = new ByteArrayOutputStream(target.length);
+    }
+
+    @Benchmark
+    public byte[] patch(Throughput throughput) throws IOException {
+        output.reset();
+        SeekableSource seekable = source.equals("bulk") ? new ByteBufferSeekableSource(base) : new PerByteSeekableSource(base);
+        new GDiffPatcher().patch(seekable, new ByteArrayInputStream(patch), output);
+        throughput.add(output.size());
+        return output.toByteArray();
+    }
+}
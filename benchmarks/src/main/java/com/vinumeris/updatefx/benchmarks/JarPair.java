@@ -0,0 +1,164 @@
+package com.vinumeris.updatefx.benchmarks;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * A base/target pair of JARs to run the delta engine over. A pair is described by a spec string which is either
+ * "synthetic:N", meaning a generated fat jar of roughly N megabytes and a following version of it, or two paths
+ * separated by a comma, e.g. "builds/processed/41.jar,builds/processed/42.jar", for benchmarking real releases.
+ *
+ * Synthetic jars look like what ProcessZIP produces: every entry is stored uncompressed with a zeroed timestamp.
+ * Entry bodies are built from a shared vocabulary of byte strings so, like class files with their constant pools,
+ * they have plenty of cross entry redundancy, with a sprinkling of incompressible resources. The next version
+ * changes about 5% of the entries, adds 1% and removes 1%. Generated files are deterministic and cached in the
+ * temp directory, so only the first run for each size pays for creating them.
+ */
+public class JarPair {
+    public final Path base;
+    public final Path target;
+
+    private JarPair(Path base, Path target) {
+        this.base = base;
+        this.target = target;
+    }
+
+    public static JarPair load(String spec) throws IOException {
+        if (spec.startsWith("synthetic:"))
+            return synthetic(Integer.parseInt(spec.substring("synthetic:".length())));
+        String[] paths = spec.split(",");
+        if (paths.length != 2)
+            throw new IllegalArgumentException("Expected synthetic:SIZE_MB or BASE_JAR,TARGET_JAR but got " + spec);
+        JarPair pair = new JarPair(Paths.get(paths[0]), Paths.get(paths[1]));
+        if (!Files.isRegularFile(pair.base) || !Files.isRegularFile(pair.target))
+            throw new IllegalArgumentException("Could not find " + spec);
+        return pair;
+    }
+
+    public static JarPair synthetic(int megabytes) throws IOException {
+        Path dir = Paths.get(System.getProperty("java.io.tmpdir"), "updatefx-benchmarks");
+        Files.createDirectories(dir);
+        Path base = dir.resolve("synthetic-" + megabytes + "mb-1.jar");
+        Path target = dir.resolve("synthetic-" + megabytes + "mb-2.jar");
+        long size = megabytes * 1024L * 1024L;
+        if (!Files.exists(base))
+            writeSynthetic(base, size, false);
+        if (!Files.exists(target))
+            writeSynthetic(target, size, true);
+        return new JarPair(base, target);
+    }
+
+    public long baseSize() throws IOException {
+        return Files.size(base);
+    }
+
+    public long targetSize() throws IOException {
+        return Files.size(target);
+    }
+
+    @Override
+    public String toString() {
+        return base + " -> " + target;
+    }
+
+    private static void writeSynthetic(Path path, long size, boolean nextVersion) throws IOException {
+        byte[][] vocabulary = vocabulary();
+        Path tmp = Files.createTempFile(path.getParent(), "synthetic", ".tmp");
+        try (ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            zip.setMethod(ZipOutputStream.STORED);
+            // Both versions draw the same sequence of entries from rnd, changes use their own generator.
+            Random rnd = new Random(1);
+            Random change = new Random(2);
+            long written = 0;
+            for (int i = 0; written < size; i++) {
+                byte[] data = entry(rnd, vocabulary);
+                String name = String.format("com/example/p%d/C%d.class", i / 100, i);
+                written += data.length;
+                if (nextVersion) {
+                    double roll = change.nextDouble();
+                    if (roll < 0.01)
+                        continue;   // Removed in this version.
+                    else if (roll < 0.06)
+                        data = mutate(data, change, vocabulary);
+                    else if (roll < 0.07)
+                        writeEntry(zip, name.replace(".class", "$Added.class"), entry(change, vocabulary));
+                }
+                writeEntry(zip, name, data);
+            }
+        }
+        Files.move(tmp, path);
+    }
+
+    private static byte[][] vocabulary() {
+        Random rnd = new Random(42);
+        byte[][] words = new byte[4096][];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = new byte[4 + rnd.nextInt(40)];
+            rnd.nextBytes(words[i]);
+        }
+        return words;
+    }
+
+    private static byte[] entry(Random rnd, byte[][] vocabulary) {
+        byte[] data = new byte[512 + rnd.nextInt(16 * 1024)];
+        if (rnd.nextInt(10) == 0) {
+            // An image or other already compressed resource.
+            rnd.nextBytes(data);
+            return data;
+        }
+        int pos = 0;
+        while (pos < data.length) {
+            if (rnd.nextInt(8) == 0) {
+                data[pos++] = (byte) rnd.nextInt();
+            } else {
+                byte[] word = vocabulary[rnd.nextInt(vocabulary.length)];
+                int len = Math.min(word.length, data.length - pos);
+                System.arraycopy(word, 0, data, pos, len);
+                pos += len;
+            }
+        }
+        return data;
+    }
+
+    private static byte[] mutate(byte[] data, Random rnd, byte[][] vocabulary) {
+        byte[] result = data.clone();
+        int edits = 1 + rnd.nextInt(8);
+        for (int i = 0; i < edits; i++) {
+            byte[] word = vocabulary[rnd.nextInt(vocabulary.length)];
+            int pos = rnd.nextInt(result.length);
+            if (rnd.nextBoolean()) {
+                // Overwrite in place, like a changed constant.
+                System.arraycopy(word, 0, result, pos, Math.min(word.length, result.length - pos));
+            } else {
+                // Insert, shifting the rest of the entry along, like added code.
+                byte[] bigger = new byte[result.length + word.length];
+                System.arraycopy(result, 0, bigger, 0, pos);
+                System.arraycopy(word, 0, bigger, pos, word.length);
+                System.arraycopy(result, pos, bigger, pos + word.length, result.length - pos);
+                result = bigger;
+            }
+        }
+        return result;
+    }
+
+    private static void writeEntry(ZipOutputStream zip, String name, byte[] data) throws IOException {
+        ZipEntry entry = new ZipEntry(name);
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        entry.setCrc(crc.getValue());
+        entry.setSize(data.length);
+        entry.setCompressedSize(data.length);
+        entry.setLastModifiedTime(FileTime.fromMillis(0));
+        zip.putNextEntry(entry);
+        zip.write(data);
+        zip.closeEntry();
+    }
+}
@@ -0,0 +1,20 @@
+package com.vinumeris.updatefx.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the usual JMH command line, e.g. {@code java -jar benchmarks/target/benchmarks.jar
+ * DeltaBenchmark -p pair=synthetic:500}, with the GC profiler always enabled so allocation rates are reported
+ * alongside throughput.
+ */
+public class Main {
+    public static void main(String[] args) throws Exception {
+        new Runner(new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,48 @@
+package com.vinumeris.updatefx.benchmarks;
+
+import com.google.common.io.ByteStreams;
+import com.nothome.delta.Delta;
+import com.nothome.delta.GDiffWriter;
+import com.nothome.delta.MatchStrategy;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the time taken by each {@link MatchStrategy}. Run {@link PatchSizes} to compare the patches they produce.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class MatchStrategyBenchmark {
+    @Param({"synthetic:10", "synthetic:200"})
+    public String pair;
+
+    @Param({"16", "64", "256"})
+    public int chunkSize;
+
+    @Param({"FIRST", "LONGEST"})
+    public MatchStrategy strategy;
+
+    private JarPair jars;
+    private long targetSize;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        jars = JarPair.load(pair);
+        targetSize = jars.targetSize();
+    }
+
+    @Benchmark
+    public void compute(Throughput throughput) throws IOException {
+        Delta delta = new Delta();
+        delta.setChunkSize(chunkSize);
+        delta.setMatchStrategy(strategy);
+        delta.compute(jars.base.toFile(), jars.target.toFile(), new GDiffWriter(ByteStreams.nullOutputStream()));
+        throughput.add(targetSize);
+    }
+}
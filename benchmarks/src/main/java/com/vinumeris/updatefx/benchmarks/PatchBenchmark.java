@@ -0,0 +1,90 @@
+package com.vinumeris.updatefx.benchmarks;
+
+import com.google.common.io.ByteStreams;
+import com.nothome.delta.Delta;
+import com.nothome.delta.GDiffPatcher;
+import com.nothome.delta.GDiffWriter;
+import com.nothome.delta.MappedFileSeekableSource;
+import com.nothome.delta.ParallelGDiffPatcher;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link GDiffPatcher#patch(java.io.File, java.io.File, java.io.File)}, which is what every client runs to
+ * rebuild the next version of the app, and the stream version fed an unbuffered patch stream, which shows what the
+ * command decoder costs on its own. The patch for each pair and chunk size is computed once per trial, along with a copy
+ * indexed every {@link #INDEX_INTERVAL} bytes that {@link ParallelGDiffPatcher} applies on every core.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class PatchBenchmark {
+    private static final long INDEX_INTERVAL = 4 * 1024 * 1024;
+
+    @Param({"synthetic:10", "synthetic:200"})
+    public String pair;
+
+    @Param({"16", "64", "256"})
+    public int chunkSize;
+
+    private JarPair jars;
+    private long targetSize;
+    private Path patch;
+    private Path indexedPatch;
+    private Path output;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        jars = JarPair.load(pair);
+        targetSize = jars.targetSize();
+        patch = Files.createTempFile("updatefx-bench", ".bpatch");
+        output = Files.createTempFile("updatefx-bench", ".jar");
+        Delta delta = new Delta();
+        delta.setChunkSize(chunkSize);
+        delta.compute(jars.base.toFile(), jars.target.toFile(),
+                new GDiffWriter(new BufferedOutputStream(Files.newOutputStream(patch))));
+        indexedPatch = Files.createTempFile("updatefx-bench", ".bpatch");
+        GDiffWriter writer = new GDiffWriter(new BufferedOutputStream(Files.newOutputStream(indexedPatch)));
+        writer.setIndexInterval(INDEX_INTERVAL);
+        delta.compute(jars.base.toFile(), jars.target.toFile(), writer);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(patch);
+        Files.deleteIfExists(indexedPatch);
+        Files.deleteIfExists(output);
+    }
+
+    @Benchmark
+    public void patch(Throughput throughput) throws IOException {
+        new GDiffPatcher().patch(jars.base.toFile(), patch.toFile(), output.toFile());
+        throughput.add(targetSize);
+    }
+
+    @Benchmark
+    public void patchStream(Throughput throughput) throws IOException {
+        try (MappedFileSeekableSource source = new MappedFileSeekableSource(jars.base.toFile());
+             InputStream patchStream = Files.newInputStream(patch)) {
+            new GDiffPatcher().patch(source, patchStream, ByteStreams.nullOutputStream());
+        }
+        throughput.add(targetSize);
+    }
+
+    @Benchmark
+    public void patchParallel(Throughput throughput) throws IOException {
+        new ParallelGDiffPatcher(Runtime.getRuntime().availableProcessors())
+                .patch(new File[]{jars.base.toFile()}, indexedPatch.toFile(), output.toFile());
+        throughput.add(targetSize);
+    }
+}
@@ -0,0 +1,42 @@
+package com.vinumeris.updatefx.benchmarks;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+import com.nothome.delta.Delta;
+import com.nothome.delta.GDiffWriter;
+import com.nothome.delta.MatchStrategy;
+
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Prints the size of the patch, raw and gzipped as it would be served, and the time taken to compute it, for each
+ * chunk size and {@link MatchStrategy}. Takes pair specs as described in {@link JarPair}, defaulting to a synthetic
+ * 10mb pair. Wall clock times from a single run are only indicative: use the JMH benchmarks for real measurements.
+ */
+public class PatchSizes {
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0)
+            args = new String[]{"synthetic:10"};
+        for (String spec : args) {
+            JarPair jars = JarPair.load(spec);
+            System.out.println(jars + " (" + jars.targetSize() / 1024 + "kb)");
+            System.out.println(String.format("%8s %10s %12s %12s %10s", "chunk", "strategy", "patch kb", "gzipped kb", "millis"));
+            for (int chunkSize : new int[]{16, 64, 256}) {
+                for (MatchStrategy strategy : MatchStrategy.values()) {
+                    Delta delta = new Delta();
+                    delta.setChunkSize(chunkSize);
+                    delta.setMatchStrategy(strategy);
+                    CountingOutputStream gzipped = new CountingOutputStream(ByteStreams.nullOutputStream());
+                    GZIPOutputStream zip = new GZIPOutputStream(gzipped);
+                    CountingOutputStream raw = new CountingOutputStream(zip);
+                    long start = System.nanoTime();
+                    delta.compute(jars.base.toFile(), jars.target.toFile(), new GDiffWriter(raw));
+                    long millis = (System.nanoTime() - start) / 1000000;
+                    System.out.println(String.format("%8d %10s %12d %12d %10d", chunkSize, strategy,
+                            raw.getCount() / 1024, gzipped.getCount() / 1024, millis));
+                }
+            }
+            System.out.println();
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.vinumeris.updatefx.benchmarks;
+
+import com.nothome.delta.SeekableSource;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The original ByteBufferSeekableSource, which slices on every seek and copies one byte at a time. Kept here as the
+ * baseline for {@link InMemoryPatchBenchmark}.
+ */
+public class PerByteSeekableSource implements SeekableSource {
+    private ByteBuffer bb;
+    private ByteBuffer cur;
+
+    public PerByteSeekableSource(byte[] source) {
+        bb = ByteBuffer.wrap(source);
+        cur = bb.slice();
+    }
+
+    @Override
+    public void seek(long pos) throws IOException {
+        cur = bb.slice();
+        if (pos > cur.limit())
+            throw new IOException("pos " + pos + " cannot seek " + cur.limit());
+        cur.position((int) pos);
+    }
+
+    @Override
+    public int read(ByteBuffer dest) throws IOException {
+        if (!cur.hasRemaining())
+            return -1;
+        int c = 0;
+        while (cur.hasRemaining() && dest.hasRemaining()) {
+            dest.put(cur.get());
+            c++;
+        }
+        return c;
+    }
+
+    @Override
+    public void close() throws IOException {
+    }
+}
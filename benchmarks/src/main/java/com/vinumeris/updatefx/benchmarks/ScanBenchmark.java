@@ -0,0 +1,54 @@
+package com.vinumeris.updatefx.benchmarks;
+
+import com.google.common.io.ByteStreams;
+import com.nothome.delta.ByteBufferSeekableSource;
+import com.nothome.delta.Delta;
+import com.nothome.delta.GDiffWriter;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how fast {@link Delta} scans a target that has almost nothing in common with the source, like the
+ * compressed resources inside a jar. Every position is checksummed and looked up but hardly any match, so this is
+ * the raw speed of the scan loop rather than of extending matches.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class ScanBenchmark {
+    @Param({"synthetic:100", "synthetic:200"})
+    public String pair;
+
+    @Param({"16", "64"})
+    public int chunkSize;
+
+    private byte[] unrelated;
+    private JarPair jars;
+    private long targetSize;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        jars = JarPair.load(pair);
+        targetSize = jars.targetSize();
+        unrelated = new byte[8 * 1024 * 1024];
+        new Random(1).nextBytes(unrelated);
+    }
+
+    @Benchmark
+    public void scan(Throughput throughput) throws IOException {
+        Delta delta = new Delta();
+        delta.setChunkSize(chunkSize);
+        try (BufferedInputStream target = new BufferedInputStream(Files.newInputStream(jars.target))) {
+            delta.compute(new ByteBufferSeekableSource(unrelated), target, new GDiffWriter(ByteStreams.nullOutputStream()));
+        }
+        throughput.add(targetSize);
+    }
+}
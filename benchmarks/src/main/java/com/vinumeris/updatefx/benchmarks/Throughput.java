@@ -0,0 +1,30 @@
+package com.vinumeris.updatefx.benchmarks;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Secondary result that reports how many megabytes of jar were produced or scanned per second, which is easier to
+ * compare across pair sizes than raw operations per second. Benchmarks call {@link #add(long)} once per invocation.
+ */
+@AuxCounters
+@State(Scope.Thread)
+public class Throughput {
+    // JMH only knows how to report integral counters, so keep the exact byte count on the side.
+    public long megabytes;
+    private long bytes;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        megabytes = 0;
+        bytes = 0;
+    }
+
+    public void add(long n) {
+        bytes += n;
+        megabytes = bytes / (1024 * 1024);
+    }
+}